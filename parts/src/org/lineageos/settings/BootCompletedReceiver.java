@@ -32,12 +32,18 @@ import android.util.Log;
 import android.view.Display;
 import android.view.Display.HdrCapabilities;
 
+import java.util.concurrent.CompletableFuture;
+
 import org.lineageos.settings.doze.DozeUtils;
 import org.lineageos.settings.display.ColorModeService;
+import org.lineageos.settings.appprofile.AppProfileService;
+import org.lineageos.settings.power.PowerProfileController;
 import org.lineageos.settings.refreshrate.RefreshUtils;
 import org.lineageos.settings.touchsampling.TouchSamplingUtils;
 import org.lineageos.settings.touchsampling.TouchSamplingService;
 import org.lineageos.settings.touchsampling.TouchSamplingTileService;
+import org.lineageos.settings.utils.SysfsStatsService;
+import org.lineageos.settings.utils.SysfsWriter;
 
 public class BootCompletedReceiver extends BroadcastReceiver {
     private static final boolean DEBUG = false;
@@ -77,6 +83,20 @@ public class BootCompletedReceiver extends BroadcastReceiver {
         // High Touch polling rate
         TouchSamplingUtils.restoreSamplingValue(context);
 
+        // Power profile, restored and then followed without the tile being bound
+        final CompletableFuture<Boolean> powerRestored =
+                PowerProfileController.getInstance(context).getRestored();
+
+        // Keep the receiver alive until every restored value reached sysfs. The
+        // power profile is restored on the controller thread, so wait for it
+        // before flushing whatever it queued.
+        final PendingResult result = goAsync();
+        powerRestored.handle((restored, e) -> null)
+                .thenCompose(ignored -> SysfsWriter.getInstance().flush())
+                .whenComplete((ignored, e) -> {
+                    if (DEBUG) Log.i(TAG, "Boot restore flushed.");
+                    result.finish();
+                });
     }
 
     private void startServices(Context context) {
@@ -91,6 +111,9 @@ public class BootCompletedReceiver extends BroadcastReceiver {
         // Start Refresh Rate Service
         RefreshUtils.startService(context);
 
+        // Start App Profile Service
+        AppProfileService.startService(context);
+
         // Start Touch Sampling Service
         context.startServiceAsUser(new Intent(context, TouchSamplingService.class),
                 UserHandle.CURRENT);
@@ -98,6 +121,10 @@ public class BootCompletedReceiver extends BroadcastReceiver {
         // Touch Sampling Tile Service
         context.startServiceAsUser(new Intent(context, TouchSamplingTileService.class), 
                 UserHandle.CURRENT);
+
+        // Sysfs Stats Service
+        context.startServiceAsUser(new Intent(context, SysfsStatsService.class),
+                UserHandle.CURRENT);
     }
 
     private void overrideHdrTypes(Context context) {
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.settings.appprofile;
+
+import org.lineageos.settings.power.PowerProfile;
+import org.lineageos.settings.refreshrate.RefreshRuleStore.Mode;
+
+/**
+ * An immutable bundle of the settings applied while one app is in front.
+ * A null field leaves that setting to its own per-app rule or global state.
+ */
+public final class AppProfile {
+    public final Mode refreshMode;
+    public final Boolean touchSampling;
+    public final PowerProfile powerProfile;
+
+    public AppProfile(Mode refreshMode, Boolean touchSampling, PowerProfile powerProfile) {
+        this.refreshMode = refreshMode;
+        this.touchSampling = touchSampling;
+        this.powerProfile = powerProfile;
+    }
+
+    public boolean isEmpty() {
+        return refreshMode == null && touchSampling == null && powerProfile == null;
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.settings.appprofile;
+
+import android.app.Service;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.os.IBinder;
+import android.os.UserHandle;
+import android.util.Log;
+
+import org.lineageos.settings.power.PowerProfileController;
+import org.lineageos.settings.touchsampling.TouchSamplingUtils;
+import org.lineageos.settings.utils.ForegroundAppTracker;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.IntSupplier;
+
+/**
+ * Applies the touch sampling and power parts of per-app profiles.
+ *
+ * Runs on the shared foreground tracker thread. On entering an app with a
+ * profile every setting it overrides is queued at once, and on leaving it the
+ * global state is put back. The power part is a temporary override in
+ * PowerProfileController, which keeps the user's own selection, custom
+ * profile included, and brings it back without touching the saved touch
+ * sampling state. The touch state is resolved only once that write landed. The refresh rate
+ * part is resolved by RefreshService from the same store, in the same pass.
+ * Editing the profile of the app in front re-applies it right away.
+ */
+public class AppProfileService extends Service {
+    private static final String TAG = "AppProfileService";
+    private static final boolean DEBUG = false;
+
+    private AppProfileStore mStore;
+    private ForegroundAppTracker mTracker;
+    private PowerProfileController mPowerController;
+
+    // Only touched on the tracker thread
+    private AppProfile mActiveProfile;
+    private boolean mOverridingTouch;
+    private boolean mOverridingPower;
+    private long mApplied;
+
+    private final ForegroundAppTracker.Consumer mForegroundConsumer =
+            (component, userId) -> onForegroundAppChanged(component);
+
+    private final AppProfileStore.Listener mProfileListener =
+            packageName -> mTracker.getExecutor().execute(() -> {
+                final ComponentName component = mTracker.getCurrentComponent();
+                if (component != null && component.getPackageName().equals(packageName)) {
+                    onForegroundAppChanged(component);
+                }
+            });
+
+    public static void startService(Context context) {
+        context.startServiceAsUser(new Intent(context, AppProfileService.class),
+                UserHandle.CURRENT);
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mStore = AppProfileStore.getInstance(this);
+        mPowerController = PowerProfileController.getInstance(this);
+        mTracker = ForegroundAppTracker.getInstance();
+        mTracker.addConsumer(mForegroundConsumer);
+        mStore.addListener(mProfileListener);
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        return START_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        mStore.removeListener(mProfileListener);
+        mTracker.removeConsumer(mForegroundConsumer);
+        super.onDestroy();
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        pw.println("App profiles:");
+        pw.println("  overriding: touch=" + mOverridingTouch + " power=" + mOverridingPower);
+        pw.println("  applied: " + mApplied);
+    }
+
+    private void onForegroundAppChanged(ComponentName component) {
+        final AppProfile profile = mStore.get(component.getPackageName());
+        // Snapshots are immutable, so the same object means nothing to do
+        if (profile == mActiveProfile) {
+            return;
+        }
+        mActiveProfile = profile;
+
+        final List<CompletableFuture<Boolean>> writes = new ArrayList<>(2);
+        CompletableFuture<Boolean> power = null;
+        if (profile != null && profile.powerProfile != null) {
+            power = mPowerController.setOverride(profile.powerProfile);
+            mOverridingPower = true;
+        } else if (mOverridingPower) {
+            power = mPowerController.setOverride(null);
+            mOverridingPower = false;
+        }
+        if (power != null) {
+            writes.add(power);
+        }
+
+        // Resolved once the power write landed, so the node ends up with the
+        // app's touch state whatever the power switch left in it
+        final boolean touch = profile != null && profile.touchSampling != null;
+        if (power != null || touch || mOverridingTouch) {
+            writes.add(writeTouchSampling(power,
+                    () -> TouchSamplingUtils.getDesiredState(this, component)));
+        }
+        mOverridingTouch = touch;
+
+        if (writes.isEmpty()) {
+            return;
+        }
+        mApplied++;
+        if (DEBUG) {
+            CompletableFuture.allOf(writes.toArray(new CompletableFuture[0])).thenRun(() ->
+                    Log.d(TAG, "Applied profile for " + component.getPackageName()));
+        }
+    }
+
+    private static CompletableFuture<Boolean> writeTouchSampling(
+            CompletableFuture<Boolean> after, IntSupplier state) {
+        if (after == null) {
+            return TouchSamplingUtils.writeTouchSamplingState(state.getAsInt());
+        }
+        return after.thenCompose(ignored ->
+                TouchSamplingUtils.writeTouchSamplingState(state.getAsInt()));
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.settings.appprofile;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import androidx.preference.PreferenceManager;
+
+import org.lineageos.settings.power.PowerProfile;
+import org.lineageos.settings.refreshrate.RefreshRuleStore.Mode;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Process-wide store of the per-app performance profiles.
+ *
+ * Like the refresh rate rules, profiles live in an immutable HashMap snapshot
+ * swapped on every edit, so the refresh, touch and power paths all resolve the
+ * foreground app with the same O(1) lookup. Persisted as a version line
+ * followed by one "package refresh touch power" line per app, -1 meaning unset.
+ */
+public final class AppProfileStore {
+    private static final String TAG = "AppProfileStore";
+
+    private static final String KEY_PROFILES = "app_profiles";
+    private static final int VERSION = 1;
+    private static final int UNSET = -1;
+
+    public interface Listener {
+        /**
+         * Called on the editing thread once the profile of the package changed.
+         */
+        void onProfileChanged(String packageName);
+    }
+
+    private static AppProfileStore sInstance;
+
+    private final SharedPreferences mSharedPrefs;
+    private final List<Listener> mListeners = new CopyOnWriteArrayList<>();
+
+    // Never mutated once published
+    private volatile Map<String, AppProfile> mProfiles;
+
+    private AppProfileStore(Context context) {
+        mSharedPrefs = PreferenceManager.getDefaultSharedPreferences(context);
+        mProfiles = parse(mSharedPrefs.getString(KEY_PROFILES, null));
+    }
+
+    public static synchronized AppProfileStore getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new AppProfileStore(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * @return the profile of the package, or null if it has none
+     */
+    public AppProfile get(String packageName) {
+        return mProfiles.get(packageName);
+    }
+
+    public boolean isEmpty() {
+        return mProfiles.isEmpty();
+    }
+
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    public synchronized void set(String packageName, AppProfile profile) {
+        final Map<String, AppProfile> profiles = new HashMap<>(mProfiles);
+        if (profile == null || profile.isEmpty()) {
+            if (profiles.remove(packageName) == null) {
+                return;
+            }
+        } else {
+            profiles.put(packageName, profile);
+        }
+        mProfiles = profiles;
+        mSharedPrefs.edit().putString(KEY_PROFILES, serialize(profiles)).apply();
+        for (Listener listener : mListeners) {
+            listener.onProfileChanged(packageName);
+        }
+    }
+
+    private static Map<String, AppProfile> parse(String value) {
+        final Map<String, AppProfile> profiles = new HashMap<>();
+        if (value == null) {
+            return profiles;
+        }
+        final String[] lines = value.split("\n");
+        if (!Integer.toString(VERSION).equals(lines[0])) {
+            Log.w(TAG, "Unknown profile format " + lines[0] + ", ignoring stored profiles");
+            return profiles;
+        }
+        for (int i = 1; i < lines.length; i++) {
+            final String[] fields = lines[i].split(" ");
+            if (fields.length != 4) {
+                continue;
+            }
+            try {
+                final int refresh = Integer.parseInt(fields[1]);
+                final int touch = Integer.parseInt(fields[2]);
+                final int power = Integer.parseInt(fields[3]);
+                profiles.put(fields[0], new AppProfile(
+                        refresh == UNSET ? null : Mode.fromState(refresh),
+                        touch == UNSET ? null : touch != 0,
+                        power == UNSET ? null : PowerProfile.fromValue(power)));
+            } catch (NumberFormatException e) {
+                Log.w(TAG, "Skipping malformed profile " + lines[i]);
+            }
+        }
+        return profiles;
+    }
+
+    private static String serialize(Map<String, AppProfile> profiles) {
+        final StringBuilder builder = new StringBuilder().append(VERSION);
+        for (Map.Entry<String, AppProfile> entry : profiles.entrySet()) {
+            final AppProfile profile = entry.getValue();
+            builder.append('\n').append(entry.getKey())
+                    .append(' ').append(profile.refreshMode == null
+                            ? UNSET : profile.refreshMode.state)
+                    .append(' ').append(profile.touchSampling == null
+                            ? UNSET : profile.touchSampling ? 1 : 0)
+                    .append(' ').append(profile.powerProfile == null
+                            ? UNSET : profile.powerProfile.getValue());
+        }
+        return builder.toString();
+    }
+}
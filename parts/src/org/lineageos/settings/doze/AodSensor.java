@@ -66,6 +66,8 @@ public class AodSensor implements SensorEventListener {
         if (DEBUG) {
             Log.d(TAG, "Enabling");
         }
+        // The panel leaves doze with its own defaults, don't trust what we wrote last time
+        DozeUtils.invalidateDozeMode();
         submit(() -> {
             mSensorManager.registerListener(this, mSensor, SensorManager.SENSOR_DELAY_NORMAL);
         });
@@ -35,7 +35,10 @@ import androidx.preference.ListPreference;
 import androidx.preference.PreferenceManager;
 
 import org.lineageos.settings.R;
-import org.lineageos.settings.utils.FileUtils;
+import org.lineageos.settings.utils.SysfsNode;
+import org.lineageos.settings.utils.SysfsWriter;
+
+import java.util.concurrent.CompletableFuture;
 
 public final class DozeUtils {
     private static final String TAG = "DozeUtils";
@@ -49,6 +52,7 @@ public final class DozeUtils {
 
     protected static final String DOZE_MODE_PATH =
             "/sys/devices/platform/soc/soc:qcom,dsi-display-primary/doze_mode";
+    private static final SysfsNode DOZE_MODE_NODE = SysfsNode.get(DOZE_MODE_PATH);
     protected static final String DOZE_MODE_HBM = "1";
     protected static final String DOZE_MODE_LBM = "0";
 
@@ -115,8 +119,12 @@ public final class DozeUtils {
         return new AmbientDisplayConfiguration(context).alwaysOnAvailable();
     }
 
-    protected static boolean setDozeMode(String value) {
-        return FileUtils.writeLine(DOZE_MODE_PATH, value);
+    protected static CompletableFuture<Boolean> setDozeMode(String value) {
+        return SysfsWriter.getInstance().write(DOZE_MODE_NODE, value);
+    }
+
+    protected static void invalidateDozeMode() {
+        DOZE_MODE_NODE.invalidate();
     }
 
     protected static boolean isDozeAutoBrightnessEnabled(Context context) {
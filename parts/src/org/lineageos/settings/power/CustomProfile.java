@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.settings.power;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An immutable, user-named power profile: DEFAULT plus a set of powerhint.json
+ * node caps, node name to value.
+ */
+public final class CustomProfile {
+    public final String name;
+    public final Map<String, String> caps;
+
+    public CustomProfile(String name, Map<String, String> caps) {
+        this.name = name;
+        this.caps = Collections.unmodifiableMap(new LinkedHashMap<>(caps));
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.settings.power;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import androidx.preference.PreferenceManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Process-wide store of the user's custom power profiles, in the order they
+ * are cycled through.
+ *
+ * Profiles live in an immutable list snapshot swapped on every edit. Every cap
+ * is checked against powerhint.json on load and on save, so one that the
+ * vendor config no longer accepts is dropped instead of written. Persisted as
+ * a version line followed by one "name<TAB>node=value<TAB>..." line per
+ * profile.
+ */
+public final class CustomProfileStore {
+    private static final String TAG = "CustomProfileStore";
+
+    private static final String KEY_PROFILES = "custom_power_profiles";
+    private static final int VERSION = 1;
+
+    private static CustomProfileStore sInstance;
+
+    private final SharedPreferences mSharedPrefs;
+    private final PowerHintNodes mNodes;
+
+    // Never mutated once published
+    private volatile List<CustomProfile> mProfiles;
+
+    private CustomProfileStore(Context context) {
+        mSharedPrefs = PreferenceManager.getDefaultSharedPreferences(context);
+        mNodes = PowerHintNodes.getInstance();
+        mProfiles = parse(mSharedPrefs.getString(KEY_PROFILES, null));
+    }
+
+    public static synchronized CustomProfileStore getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new CustomProfileStore(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    public List<CustomProfile> getProfiles() {
+        return mProfiles;
+    }
+
+    /**
+     * @return the profile with this name, or null
+     */
+    public CustomProfile get(String name) {
+        for (CustomProfile profile : mProfiles) {
+            if (profile.name.equals(name)) {
+                return profile;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds the profile, or replaces the one named oldName in place. Caps the
+     * vendor config does not accept are dropped.
+     *
+     * @param oldName the name of the profile being edited, or null to add
+     * @return the profile as stored
+     */
+    public synchronized CustomProfile put(String oldName, CustomProfile profile) {
+        final CustomProfile validated = validate(profile.name, profile.caps);
+        final List<CustomProfile> profiles = new ArrayList<>(mProfiles);
+        final int index = indexOf(profiles, oldName != null ? oldName : profile.name);
+        if (index >= 0) {
+            profiles.set(index, validated);
+        } else {
+            profiles.add(validated);
+        }
+        publish(profiles);
+        return validated;
+    }
+
+    public synchronized void remove(String name) {
+        final List<CustomProfile> profiles = new ArrayList<>(mProfiles);
+        final int index = indexOf(profiles, name);
+        if (index >= 0) {
+            profiles.remove(index);
+            publish(profiles);
+        }
+    }
+
+    /**
+     * @return the name with the characters the storage format uses removed
+     */
+    public static String sanitizeName(String name) {
+        return name.replaceAll("[\\t\\n]", " ").trim();
+    }
+
+    private void publish(List<CustomProfile> profiles) {
+        mProfiles = Collections.unmodifiableList(profiles);
+        mSharedPrefs.edit().putString(KEY_PROFILES, serialize(profiles)).apply();
+    }
+
+    private static int indexOf(List<CustomProfile> profiles, String name) {
+        for (int i = 0; i < profiles.size(); i++) {
+            if (profiles.get(i).name.equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private CustomProfile validate(String name, Map<String, String> caps) {
+        final Map<String, String> valid = new LinkedHashMap<>();
+        for (Map.Entry<String, String> cap : caps.entrySet()) {
+            if (mNodes.isValid(cap.getKey(), cap.getValue())) {
+                valid.put(cap.getKey(), cap.getValue());
+            } else {
+                Log.w(TAG, "Dropping " + cap.getKey() + "=" + cap.getValue() + " from " + name
+                        + ", not allowed by powerhint.json");
+            }
+        }
+        return new CustomProfile(sanitizeName(name), valid);
+    }
+
+    private List<CustomProfile> parse(String value) {
+        final List<CustomProfile> profiles = new ArrayList<>();
+        if (value == null) {
+            return Collections.unmodifiableList(profiles);
+        }
+        final String[] lines = value.split("\n");
+        if (!Integer.toString(VERSION).equals(lines[0])) {
+            Log.w(TAG, "Unknown profile format " + lines[0] + ", ignoring stored profiles");
+            return Collections.unmodifiableList(profiles);
+        }
+        for (int i = 1; i < lines.length; i++) {
+            final String[] fields = lines[i].split("\t");
+            if (fields[0].isEmpty()) {
+                continue;
+            }
+            final Map<String, String> caps = new LinkedHashMap<>();
+            for (int j = 1; j < fields.length; j++) {
+                final int sep = fields[j].indexOf('=');
+                if (sep > 0) {
+                    caps.put(fields[j].substring(0, sep), fields[j].substring(sep + 1));
+                }
+            }
+            profiles.add(validate(fields[0], caps));
+        }
+        return Collections.unmodifiableList(profiles);
+    }
+
+    private static String serialize(List<CustomProfile> profiles) {
+        final StringBuilder builder = new StringBuilder().append(VERSION);
+        for (CustomProfile profile : profiles) {
+            builder.append('\n').append(profile.name);
+            for (Map.Entry<String, String> cap : profile.caps.entrySet()) {
+                builder.append('\t').append(cap.getKey()).append('=').append(cap.getValue());
+            }
+        }
+        return builder.toString();
+    }
+}
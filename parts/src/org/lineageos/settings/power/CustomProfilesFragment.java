@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.settings.power;
+
+import android.app.AlertDialog;
+import android.content.Context;
+import android.os.Bundle;
+import android.text.TextUtils;
+import android.util.TypedValue;
+import android.widget.ArrayAdapter;
+import android.widget.EditText;
+import android.widget.LinearLayout;
+import android.widget.ScrollView;
+import android.widget.Spinner;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import androidx.preference.ListPreference;
+import androidx.preference.Preference;
+import androidx.preference.PreferenceCategory;
+import androidx.preference.PreferenceFragment;
+
+import org.lineageos.settings.R;
+import org.lineageos.settings.utils.LatencyHistogram;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lists the custom power profiles and edits them. Each one picks a value, or
+ * no cap, for every node powerhint.json declares, from that node's own table.
+ * Also picks the profile to drop to while the screen is off.
+ */
+public class CustomProfilesFragment extends PreferenceFragment {
+
+    private static final String KEY_SCREEN_OFF_PROFILE = "screen_off_profile";
+    private static final String KEY_SCREEN_OFF_RESTORE = "screen_off_restore";
+    private static final String KEY_CUSTOM_PROFILES = "custom_profiles";
+
+    private CustomProfileStore mStore;
+    private PowerHintNodes mNodes;
+    private PowerProfileController mController;
+    private PreferenceCategory mProfilesCategory;
+    private Preference mRestorePreference;
+
+    @Override
+    public void onCreatePreferences(Bundle savedInstanceState, String rootKey) {
+        addPreferencesFromResource(R.xml.custom_power_profiles);
+
+        final Context context = getActivity();
+        mStore = CustomProfileStore.getInstance(context);
+        mNodes = PowerHintNodes.getInstance();
+        mController = PowerProfileController.getInstance(context);
+
+        getActivity().getActionBar().setDisplayHomeAsUpEnabled(true);
+        getActivity().setTitle(R.string.custom_profiles_title);
+
+        final ListPreference screenOff = findPreference(KEY_SCREEN_OFF_PROFILE);
+        final PowerProfile screenOffProfile = mController.getScreenOffProfile();
+        screenOff.setValue(String.valueOf(
+                screenOffProfile != null ? screenOffProfile.getValue() : -1));
+        screenOff.setOnPreferenceChangeListener((p, newValue) -> {
+            final PowerProfile profile =
+                    PowerProfile.fromValue(Integer.parseInt((String) newValue));
+            mController.setScreenOffProfile(profile != PowerProfile.UNKNOWN ? profile : null);
+            return true;
+        });
+        mRestorePreference = findPreference(KEY_SCREEN_OFF_RESTORE);
+        mProfilesCategory = findPreference(KEY_CUSTOM_PROFILES);
+
+        updateProfiles();
+    }
+
+    @Override
+    public void onResume() {
+        super.onResume();
+        updateRestoreLatency();
+    }
+
+    private void updateRestoreLatency() {
+        final LatencyHistogram latency = mController.getRestoreLatency();
+        final long count = latency.getCount();
+        if (count == 0) {
+            mRestorePreference.setSummary(R.string.screen_off_restore_none);
+            return;
+        }
+        mRestorePreference.setSummary(getResources().getQuantityString(
+                R.plurals.screen_off_restore_summary, (int) count,
+                count, latency.getPercentileUs(50) / 1000, latency.getMaxUs() / 1000));
+    }
+
+    private void updateProfiles() {
+        final Context context = getPreferenceManager().getContext();
+        mProfilesCategory.removeAll();
+
+        if (mNodes.getNodes().isEmpty()) {
+            final Preference unavailable = new Preference(context);
+            unavailable.setTitle(R.string.custom_profiles_unavailable);
+            unavailable.setEnabled(false);
+            mProfilesCategory.addPreference(unavailable);
+            return;
+        }
+
+        for (CustomProfile profile : mStore.getProfiles()) {
+            final Preference preference = new Preference(context);
+            preference.setTitle(profile.name);
+            preference.setSummary(getResources().getQuantityString(
+                    R.plurals.custom_profile_caps, profile.caps.size(), profile.caps.size()));
+            preference.setOnPreferenceClickListener(p -> {
+                showEditor(profile);
+                return true;
+            });
+            mProfilesCategory.addPreference(preference);
+        }
+
+        final Preference add = new Preference(context);
+        add.setTitle(R.string.custom_profile_add);
+        add.setSummary(R.string.custom_profile_add_summary);
+        add.setOnPreferenceClickListener(p -> {
+            showEditor(null);
+            return true;
+        });
+        mProfilesCategory.addPreference(add);
+    }
+
+    private void showEditor(CustomProfile profile) {
+        final Context context = getActivity();
+        final List<PowerHintNodes.Node> nodes = mNodes.getNodes();
+
+        final LinearLayout layout = new LinearLayout(context);
+        layout.setOrientation(LinearLayout.VERTICAL);
+        final int padding = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 24,
+                getResources().getDisplayMetrics());
+        layout.setPadding(padding, padding / 2, padding, 0);
+
+        final EditText name = new EditText(context);
+        name.setSingleLine();
+        name.setHint(R.string.custom_profile_name);
+        if (profile != null) {
+            name.setText(profile.name);
+        }
+        layout.addView(name);
+
+        final List<Spinner> spinners = new ArrayList<>(nodes.size());
+        for (PowerHintNodes.Node node : nodes) {
+            final TextView title = new TextView(context);
+            title.setText(node.name);
+            layout.addView(title);
+
+            final String[] items = new String[node.values.size() + 1];
+            items[0] = getString(R.string.custom_profile_no_cap);
+            for (int i = 0; i < node.values.size(); i++) {
+                items[i + 1] = node.values.get(i);
+            }
+            final Spinner spinner = new Spinner(context);
+            spinner.setAdapter(new ArrayAdapter<>(context,
+                    android.R.layout.simple_spinner_dropdown_item, items));
+            if (profile != null) {
+                spinner.setSelection(node.values.indexOf(profile.caps.get(node.name)) + 1);
+            }
+            layout.addView(spinner);
+            spinners.add(spinner);
+        }
+
+        final ScrollView scroll = new ScrollView(context);
+        scroll.addView(layout);
+
+        final AlertDialog.Builder builder = new AlertDialog.Builder(context)
+                .setTitle(profile != null ? R.string.custom_profile_edit
+                        : R.string.custom_profile_add)
+                .setView(scroll)
+                .setPositiveButton(android.R.string.ok, (dialog, which) -> {
+                    final Map<String, String> caps = new LinkedHashMap<>();
+                    for (int i = 0; i < nodes.size(); i++) {
+                        final int position = spinners.get(i).getSelectedItemPosition();
+                        if (position > 0) {
+                            caps.put(nodes.get(i).name, nodes.get(i).values.get(position - 1));
+                        }
+                    }
+                    save(profile, CustomProfileStore.sanitizeName(name.getText().toString()),
+                            caps);
+                })
+                .setNegativeButton(android.R.string.cancel, null);
+        if (profile != null) {
+            builder.setNeutralButton(R.string.custom_profile_delete, (dialog, which) -> {
+                mStore.remove(profile.name);
+                mController.onCustomProfileChanged(profile.name, null);
+                updateProfiles();
+            });
+        }
+        builder.show();
+    }
+
+    private void save(CustomProfile old, String name, Map<String, String> caps) {
+        if (TextUtils.isEmpty(name)) {
+            Toast.makeText(getActivity(), R.string.custom_profile_name_missing,
+                    Toast.LENGTH_SHORT).show();
+            return;
+        }
+        final CustomProfile existing = mStore.get(name);
+        if (existing != null && existing != old) {
+            Toast.makeText(getActivity(), R.string.custom_profile_name_taken,
+                    Toast.LENGTH_SHORT).show();
+            return;
+        }
+        final String oldName = old != null ? old.name : null;
+        mStore.put(oldName, new CustomProfile(name, caps));
+        if (oldName != null) {
+            mController.onCustomProfileChanged(oldName, name);
+        }
+        updateProfiles();
+    }
+}
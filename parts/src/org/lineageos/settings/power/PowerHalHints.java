@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.settings.power;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.IPowerManager;
+import android.os.Looper;
+import android.os.RemoteException;
+import android.os.ServiceManager;
+import android.os.SystemProperties;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.util.Arrays;
+
+/**
+ * Drives the Power HAL modes and boosts that back each power profile.
+ *
+ * powerhint.json already knows how to raise and release the cluster, GPU and
+ * bus floors for these hints, so profiles toggle them through PowerManager
+ * instead of poking the frequency nodes themselves.
+ *
+ * Modes are not reference counted, so other clients (SurfaceFlinger, the
+ * framework, GameManager) lose theirs if we release them. Only modes this
+ * class set are ever released, and which ones those are outlives a restart of
+ * the app through a non-persistent property, just like the HAL's own state.
+ * EXPENSIVE_RENDERING is left out for that reason: SurfaceFlinger toggles it
+ * with the composition load and would lose it to us, or we to it.
+ */
+public final class PowerHalHints {
+    private static final String TAG = "PowerHalHints";
+    private static final boolean DEBUG = false;
+
+    // Values of android.hardware.power.Mode
+    private static final int MODE_SUSTAINED_PERFORMANCE = 2;
+    private static final int MODE_FIXED_PERFORMANCE = 3;
+    private static final int MODE_GAME_LOADING = 16;
+
+    // Values of android.hardware.power.Boost
+    private static final int BOOST_INTERACTION = 0;
+    private static final int BOOST_DURATION_MS = 1000;
+
+    // How long GAME_LOADING is held once a game-profile app comes to front
+    private static final long GAME_LOADING_MS = 5000;
+
+    // The modes we hold, comma separated
+    private static final String PROP_HELD_MODES = "sys.parts.power.hal_modes";
+
+    private static final int[] NO_MODES = {};
+    private static final int[] PERFORMANCE_MODES = {
+        MODE_FIXED_PERFORMANCE,     // CPU cluster floors
+    };
+    // PERFORMANCE held down for heat
+    private static final int[] THROTTLED_MODES = {
+        MODE_SUSTAINED_PERFORMANCE, // Little cluster and GPU caps
+    };
+
+    private static final Handler sHandler = new Handler(Looper.getMainLooper());
+    private static final Runnable sEndGameLoading = PowerHalHints::endGameLoading;
+
+    private static IPowerManager sPowerManager;
+    private static int[] sActiveModes;
+    private static boolean sGameLoading;
+
+    private PowerHalHints() {
+        // This class is not supposed to be instantiated
+    }
+
+    /**
+     * @return the Power HAL modes held while the profile is active
+     */
+    public static int[] getModes(PowerProfile profile) {
+        switch (profile) {
+            case PERFORMANCE:
+                return PERFORMANCE_MODES;
+            default:
+                // Battery saving is driven by LOW_POWER, which the framework
+                // already toggles along with battery saver
+                return NO_MODES;
+        }
+    }
+
+    /**
+     * Switches the held Power HAL modes over to those of the profile, releasing
+     * the ones it does not use. Entering performance also fires a short
+     * interaction boost, so the clocks ramp while the floors settle.
+     */
+    public static synchronized void apply(PowerProfile profile) {
+        if (setModes(getModes(profile), profile.toString())
+                && profile == PowerProfile.PERFORMANCE) {
+            try {
+                getPowerManager().setPowerBoost(BOOST_INTERACTION, BOOST_DURATION_MS);
+            } catch (RemoteException | SecurityException e) {
+                Log.e(TAG, "Failed to boost for " + profile, e);
+            }
+        }
+    }
+
+    /**
+     * Holds the modes of PERFORMANCE stepped down for heat: the caps the HAL
+     * uses for sustained load instead of the floors.
+     */
+    public static synchronized void applyThrottled() {
+        setModes(THROTTLED_MODES, "throttled " + PowerProfile.PERFORMANCE);
+    }
+
+    /**
+     * Holds GAME_LOADING for GAME_LOADING_MS, e.g. while an app with a
+     * PERFORMANCE profile starts. Calling it again restarts the window.
+     */
+    public static synchronized void beginGameLoading() {
+        final IPowerManager pm = getPowerManager();
+        if (pm == null) {
+            return;
+        }
+        loadHeldModes();
+        sHandler.removeCallbacks(sEndGameLoading);
+        if (!sGameLoading) {
+            try {
+                pm.setPowerMode(MODE_GAME_LOADING, true);
+            } catch (RemoteException | SecurityException e) {
+                Log.e(TAG, "Failed to set game loading", e);
+                return;
+            }
+            sGameLoading = true;
+            writeHeldModes();
+        }
+        sHandler.postDelayed(sEndGameLoading, GAME_LOADING_MS);
+    }
+
+    private static synchronized void endGameLoading() {
+        if (!sGameLoading) {
+            return;
+        }
+        try {
+            getPowerManager().setPowerMode(MODE_GAME_LOADING, false);
+        } catch (RemoteException | SecurityException e) {
+            Log.e(TAG, "Failed to release game loading", e);
+        }
+        sGameLoading = false;
+        writeHeldModes();
+    }
+
+    /**
+     * @return whether the modes are held now
+     */
+    private static boolean setModes(int[] modes, String reason) {
+        final IPowerManager pm = getPowerManager();
+        if (pm == null) {
+            return false;
+        }
+
+        loadHeldModes();
+        try {
+            for (int mode : sActiveModes) {
+                if (!contains(modes, mode)) {
+                    pm.setPowerMode(mode, false);
+                }
+            }
+            for (int mode : modes) {
+                if (!contains(sActiveModes, mode)) {
+                    pm.setPowerMode(mode, true);
+                }
+            }
+            sActiveModes = modes;
+            writeHeldModes();
+            if (DEBUG) Log.d(TAG, "Power HAL modes for " + reason + ": " + modes.length);
+            return true;
+        } catch (RemoteException | SecurityException e) {
+            Log.e(TAG, "Failed to set Power HAL hints for " + reason, e);
+            return false;
+        }
+    }
+
+    /**
+     * Picks up the modes held before the app last restarted. A GAME_LOADING
+     * window that was cut short by the restart is ended right away.
+     */
+    private static void loadHeldModes() {
+        if (sActiveModes != null) {
+            return;
+        }
+        final int[] held = readHeldModes();
+        int count = 0;
+        for (int mode : held) {
+            if (mode == MODE_GAME_LOADING) {
+                sGameLoading = true;
+                sHandler.post(sEndGameLoading);
+            } else {
+                held[count++] = mode;
+            }
+        }
+        sActiveModes = Arrays.copyOf(held, count);
+    }
+
+    /**
+     * @return the modes set before the app last restarted, none after a reboot
+     */
+    private static int[] readHeldModes() {
+        final String value = SystemProperties.get(PROP_HELD_MODES, "");
+        if (value.isEmpty()) {
+            return NO_MODES;
+        }
+        final String[] fields = value.split(",");
+        final int[] modes = new int[fields.length];
+        try {
+            for (int i = 0; i < fields.length; i++) {
+                modes[i] = Integer.parseInt(fields[i]);
+            }
+        } catch (NumberFormatException e) {
+            Log.w(TAG, "Ignoring malformed " + PROP_HELD_MODES + ": " + value);
+            return NO_MODES;
+        }
+        return modes;
+    }
+
+    private static void writeHeldModes() {
+        final int[] modes = sActiveModes != null ? sActiveModes : NO_MODES;
+        final String[] fields = new String[modes.length + (sGameLoading ? 1 : 0)];
+        for (int i = 0; i < modes.length; i++) {
+            fields[i] = Integer.toString(modes[i]);
+        }
+        if (sGameLoading) {
+            fields[modes.length] = Integer.toString(MODE_GAME_LOADING);
+        }
+        try {
+            SystemProperties.set(PROP_HELD_MODES, TextUtils.join(",", fields));
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Failed to record the held Power HAL modes", e);
+        }
+    }
+
+    private static IPowerManager getPowerManager() {
+        if (sPowerManager == null) {
+            sPowerManager = IPowerManager.Stub.asInterface(
+                    ServiceManager.getService(Context.POWER_SERVICE));
+        }
+        return sPowerManager;
+    }
+
+    private static boolean contains(int[] array, int value) {
+        for (int item : array) {
+            if (item == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
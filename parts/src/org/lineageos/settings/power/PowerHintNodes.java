@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.settings.power;
+
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The frequency limit nodes the Power HAL drives, as declared in
+ * powerhint.json, with the values each one accepts.
+ *
+ * Custom profiles may only cap these nodes and only to values from their
+ * tables, the same ones libperfmgr would write, so a profile can never push a
+ * node somewhere the HAL itself would not. Only the CPU cluster and GPU
+ * frequency limits are exposed. The rest of the file is scheduler tunables,
+ * idle switches and PM QoS requests libperfmgr holds open, none of which a
+ * plain write from here can set safely, and sepolicy only lets us write the
+ * limits anyway.
+ */
+public final class PowerHintNodes {
+    private static final String TAG = "PowerHintNodes";
+
+    private static final String POWERHINT_PATH = "/vendor/etc/powerhint.json";
+
+    // Must match the nodes labelled vendor_sysfs_cpufreq_limits or vendor_sysfs_kgsl
+    private static final Set<String> CAP_NODES = new HashSet<>(Arrays.asList(
+            "CPULittleClusterMaxFreq", "CPULittleClusterMinFreq",
+            "CPUBigClusterMaxFreq", "CPUBigClusterMinFreq",
+            "CPUBigPlusClusterMaxFreq", "CPUBigPlusClusterMinFreq",
+            "GPUMaxFreq", "GPUMinFreq"));
+
+    public static final class Node {
+        public final String name;
+        public final String path;
+        /** Allowed values, highest priority first, as in the JSON */
+        public final List<String> values;
+        /** The value the HAL holds while no hint asks for another */
+        public final String defaultValue;
+
+        Node(String name, String path, List<String> values, int defaultIndex) {
+            this.name = name;
+            this.path = path;
+            this.values = values;
+            this.defaultValue = values.get(defaultIndex);
+        }
+    }
+
+    private static PowerHintNodes sInstance;
+
+    private final Map<String, Node> mNodes;
+
+    private PowerHintNodes(Map<String, Node> nodes) {
+        mNodes = Collections.unmodifiableMap(nodes);
+    }
+
+    public static synchronized PowerHintNodes getInstance() {
+        if (sInstance == null) {
+            sInstance = new PowerHintNodes(load());
+        }
+        return sInstance;
+    }
+
+    /**
+     * @return every node, in the order of the JSON
+     */
+    public List<Node> getNodes() {
+        return new ArrayList<>(mNodes.values());
+    }
+
+    /**
+     * @return the node, or null if powerhint.json does not declare it
+     */
+    public Node get(String name) {
+        return mNodes.get(name);
+    }
+
+    /**
+     * @return whether the node exists and accepts the value
+     */
+    public boolean isValid(String name, String value) {
+        final Node node = mNodes.get(name);
+        return node != null && node.values.contains(value);
+    }
+
+    private static Map<String, Node> load() {
+        final Map<String, Node> nodes = new LinkedHashMap<>();
+        try {
+            final String json = new String(Files.readAllBytes(Paths.get(POWERHINT_PATH)),
+                    StandardCharsets.UTF_8);
+            final JSONArray array = new JSONObject(json).getJSONArray("Nodes");
+            for (int i = 0; i < array.length(); i++) {
+                final JSONObject node = array.getJSONObject(i);
+                if (node.has("Type") || !CAP_NODES.contains(node.optString("Name"))) {
+                    continue;
+                }
+                final JSONArray jsonValues = node.getJSONArray("Values");
+                final List<String> values = new ArrayList<>(jsonValues.length());
+                for (int j = 0; j < jsonValues.length(); j++) {
+                    values.add(jsonValues.getString(j));
+                }
+                if (values.isEmpty()) {
+                    continue;
+                }
+                // Same fallback as libperfmgr: the last, least demanding value
+                final int defaultIndex = node.optInt("DefaultIndex", values.size() - 1);
+                if (defaultIndex < 0 || defaultIndex >= values.size()) {
+                    Log.w(TAG, "Skipping " + node.optString("Name") + ", bad DefaultIndex");
+                    continue;
+                }
+                final String name = node.getString("Name");
+                nodes.put(name, new Node(name, node.getString("Path"),
+                        Collections.unmodifiableList(values), defaultIndex));
+            }
+        } catch (IOException | JSONException e) {
+            Log.e(TAG, "Failed to load " + POWERHINT_PATH + ", custom profiles disabled", e);
+            nodes.clear();
+        }
+        return nodes;
+    }
+}
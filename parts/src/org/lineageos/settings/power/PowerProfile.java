@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2024 Paranoid Android
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.lineageos.settings.power;
+
+import android.os.SystemProperties;
+import android.util.Log;
+
+import org.lineageos.settings.R;
+import org.lineageos.settings.utils.SysfsNode;
+import org.lineageos.settings.utils.SysfsWriter;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Thermal power profiles, as understood by the sconfig node.
+ */
+public enum PowerProfile {
+    DEFAULT(0, R.string.powerprofile_default, R.drawable.ic_power_default, "1"),
+    BATTERY(1, R.string.powerprofile_battery, R.drawable.ic_power_battery_saver, "0"),
+    PERFORMANCE(6, R.string.powerprofile_performance, R.drawable.ic_power_performance, "2"),
+    UNKNOWN(-1, R.string.powerprofile_unknown, R.drawable.ic_power_default, "1");
+
+    private static final String TAG = "PowerProfile";
+
+    public static final String SCONFIG_PATH = "/sys/class/thermal/thermal_message/sconfig";
+    public static final SysfsNode SCONFIG_NODE = SysfsNode.get(SCONFIG_PATH);
+    public static final String SYS_PERF_PROP = "sys.perf_mode_active";
+    // Default SharedPreferences key of the profile picked through the tile
+    public static final String PREF_SAVED_PROFILE = "saved_power_profile";
+
+    private final int value;
+    private final int nameResId;
+    private final int iconResId;
+    private final String sysPropValue;
+
+    PowerProfile(int value, int nameResId, int iconResId, String sysPropValue) {
+        this.value = value;
+        this.nameResId = nameResId;
+        this.iconResId = iconResId;
+        this.sysPropValue = sysPropValue;
+    }
+
+    public int getValue() { return value; }
+    public int getNameResId() { return nameResId; }
+    public int getIconResId() { return iconResId; }
+    public String getSysPropValue() { return sysPropValue; }
+
+    /**
+     * Pushes the profile to the perf property, the Power HAL and sconfig. The
+     * sconfig write is queued, not waited for.
+     *
+     * @return a future completing with whether the sconfig write succeeded
+     */
+    public CompletableFuture<Boolean> apply() {
+        try {
+            SystemProperties.set(SYS_PERF_PROP, sysPropValue);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Failed to set " + SYS_PERF_PROP + " for " + this, e);
+        }
+        PowerHalHints.apply(this);
+        return SysfsWriter.getInstance().write(SCONFIG_NODE, value).thenApply(success -> {
+            if (!success) {
+                Log.e(TAG, "Failed to write power profile: " + this);
+            }
+            return success;
+        });
+    }
+
+    public static PowerProfile fromValue(int value) {
+        for (PowerProfile profile : values()) {
+            if (profile.value == value) return profile;
+        }
+        return UNKNOWN;
+    }
+
+    public PowerProfile getNext() {
+        switch (this) {
+            case DEFAULT: return BATTERY;
+            case BATTERY: return PERFORMANCE;
+            case PERFORMANCE: 
+            case UNKNOWN: 
+            default: return DEFAULT;
+        }
+    }
+}
@@ -0,0 +1,837 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.settings.power;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.lineageos.settings.utils.LatencyHistogram;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Owns the selected power profile and every transition between profiles.
+ *
+ * Inputs (taps, battery saver, charger, screen, sconfig and thermal changes)
+ * are queued as events and handled one at a time on a single background
+ * thread, so the state below is only ever touched by that thread and no I/O
+ * happens on the caller's. Everything the controller does to the system goes
+ * through the small interfaces below, wired to the real thing by
+ * SystemPowerEffects, which keeps the transition logic apart from the sysfs,
+ * sysprop and Power HAL details.
+ *
+ * An optional screen-off profile may replace the selected one in sconfig while
+ * the screen is off and the device is not charging. The selection itself stays
+ * untouched and is written back as soon as the user unlocks.
+ *
+ * Custom profiles run on top of DEFAULT and are cycled after PERFORMANCE.
+ *
+ * Callers only ever see an immutable State snapshot, so the tile renders
+ * without waiting on any of the above. The snapshot stays pending from the
+ * moment an event is queued until it was handled and every sysfs write it
+ * started has landed.
+ */
+public final class PowerProfileController {
+    private static final String TAG = "PowerProfileController";
+    private static final boolean DEBUG = false;
+
+    /** The sconfig node, the perf property and the Power HAL. */
+    interface ProfileBackend {
+        /**
+         * Puts the whole system on the profile: sconfig, the perf sysprop, the
+         * Power HAL modes and whether the thermal governor watches it.
+         *
+         * @return a future completing once sconfig was written
+         */
+        CompletableFuture<Boolean> apply(PowerProfile profile);
+        /**
+         * Writes the profile without re-targeting the thermal governor, to step
+         * PERFORMANCE down or back up while it stays selected.
+         *
+         * @return a future completing once sconfig was written
+         */
+        CompletableFuture<Boolean> applyStep(PowerProfile profile);
+        /** Raises the floors for a few seconds while a game-profile app starts. */
+        void beginGameLoading();
+        /** @return whether the thermal governor wants PERFORMANCE held down */
+        boolean isThrottled();
+        /**
+         * Writes the node caps of the custom profile and puts the nodes only
+         * the previous one capped back to their defaults. Null lifts all caps.
+         */
+        CompletableFuture<Boolean> applyCaps(CustomProfile custom);
+    }
+
+    interface BatterySaver {
+        boolean isSaverEnabled();
+        void setSaverEnabled(boolean enabled);
+    }
+
+    /** High touch sampling, which follows PERFORMANCE. */
+    interface TouchBoost {
+        void setTouchBoostEnabled(boolean enabled);
+    }
+
+    interface Notifier {
+        void setPerformanceShown(boolean shown);
+    }
+
+    /** Persisted selection, survives reboots. */
+    interface ProfileStore {
+        boolean isProfilesEnabled();
+        /** @return false until a profile was ever saved, i.e. on first boot */
+        boolean hasSaved();
+        PowerProfile getSaved();
+        void setSaved(PowerProfile profile);
+        /** @return the profile to go back to once battery saver is turned off */
+        PowerProfile getPrevious();
+        void setPrevious(PowerProfile profile);
+        /** @return the profile to drop to while the screen is off, or null to stay */
+        PowerProfile getScreenOffProfile();
+        void setScreenOffProfile(PowerProfile profile);
+        /** @return the custom profiles, in cycling order */
+        List<CustomProfile> getCustomProfiles();
+        /** @return the name of the saved custom profile, or null for none */
+        String getSavedCustom();
+        void setSavedCustom(String name);
+    }
+
+    /** What the controller has selected, as of its last published snapshot. */
+    public static final class State {
+        public final PowerProfile selected;
+        /** The custom profile on top of DEFAULT, or null */
+        public final CustomProfile custom;
+        public final boolean throttled;
+        public final boolean enabled;
+        /** Whether queued events or unfinished writes may still change the state */
+        public final boolean pending;
+
+        State(PowerProfile selected, CustomProfile custom, boolean throttled, boolean enabled,
+                boolean pending) {
+            this.selected = selected;
+            this.custom = custom;
+            this.throttled = throttled;
+            this.enabled = enabled;
+            this.pending = pending;
+        }
+
+        State withPending(boolean pending) {
+            return new State(selected, custom, throttled, enabled, pending);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof State)) {
+                return false;
+            }
+            final State other = (State) o;
+            return selected == other.selected && custom == other.custom
+                    && throttled == other.throttled && enabled == other.enabled
+                    && pending == other.pending;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(selected, custom, throttled, enabled, pending);
+        }
+
+        @Override
+        public String toString() {
+            return "selected=" + selected
+                    + (custom != null ? " custom=" + custom.name + " " + custom.caps : "")
+                    + " throttled=" + throttled + " enabled=" + enabled + " pending=" + pending;
+        }
+    }
+
+    public interface Listener {
+        /**
+         * Called on the controller thread after a new state was published.
+         */
+        void onStateChanged(State state);
+    }
+
+    private enum Type {
+        RESTORE,
+        SELECT,
+        CUSTOM_CHANGED,
+        CYCLE,
+        SAVER_CHANGED,
+        CHARGING_CHANGED,
+        SCONFIG_CHANGED,
+        THROTTLE_CHANGED,
+        SCREEN_OFF,
+        USER_PRESENT,
+        OVERRIDE,
+    }
+
+    private static final class Event {
+        final Type type;
+        final PowerProfile profile;
+        final boolean flag;
+        // Custom profile names before and after an edit
+        final String name;
+        final String newName;
+        final long queuedNs = System.nanoTime();
+        // Completes once the event was handled and the writes it started landed
+        final CompletableFuture<Boolean> result = new CompletableFuture<>();
+
+        Event(Type type, PowerProfile profile, boolean flag) {
+            this(type, profile, flag, null, null);
+        }
+
+        Event(Type type, PowerProfile profile, boolean flag, String name, String newName) {
+            this.type = type;
+            this.profile = profile;
+            this.flag = flag;
+            this.name = name;
+            this.newName = newName;
+        }
+
+        @Override
+        public String toString() {
+            return type + (profile != null ? " " + profile : "") + (flag ? " on" : "")
+                    + (name != null ? " " + name : "") + (newName != null ? " -> " + newName : "");
+        }
+    }
+
+    private static PowerProfileController sInstance;
+
+    private final Executor mExecutor;
+    private final ProfileBackend mBackend;
+    private final BatterySaver mSaver;
+    private final TouchBoost mTouchBoost;
+    private final Notifier mNotifier;
+    private final ProfileStore mStore;
+    private final BooleanSupplier mCharging;
+    private final List<Listener> mListeners = new CopyOnWriteArrayList<>();
+
+    // Guarded by itself, as are mInFlight and mState updates
+    private final ArrayDeque<Event> mQueue = new ArrayDeque<>();
+    private boolean mDraining;
+    // Queued events plus unfinished writes
+    private int mInFlight;
+    private volatile State mState = new State(PowerProfile.UNKNOWN, null, false, true, false);
+
+    private final LatencyHistogram mLatency = new LatencyHistogram();
+    private final LatencyHistogram mRestoreLatency = new LatencyHistogram();
+    // Only touched on the controller thread
+    private PowerProfile mSelected = PowerProfile.UNKNOWN;
+    // On top of mSelected, which is DEFAULT then, or null
+    private CustomProfile mCustom;
+    // Whether DEFAULT runs in place of the selected PERFORMANCE
+    private boolean mThrottled;
+    private long mTransitions;
+    private long mScreenOffEntries;
+    // In sconfig instead of mSelected while the screen is off, or null
+    private PowerProfile mScreenOffProfile;
+    // The user's selection while an app profile overrides it, mOverriding tells
+    private boolean mOverriding;
+    private PowerProfile mOverriddenSelected;
+    private CustomProfile mOverriddenCustom;
+    // Writes started by the event being handled
+    private final List<CompletableFuture<Boolean>> mEventWrites = new ArrayList<>();
+
+    // Result of the latest restore()
+    private volatile CompletableFuture<Boolean> mRestored =
+            CompletableFuture.completedFuture(true);
+
+    private final Runnable mDrainRunnable = this::drain;
+
+    PowerProfileController(Executor executor, ProfileBackend backend, BatterySaver saver,
+            TouchBoost touchBoost, Notifier notifier, ProfileStore store,
+            BooleanSupplier charging) {
+        mExecutor = executor;
+        mBackend = backend;
+        mSaver = saver;
+        mTouchBoost = touchBoost;
+        mNotifier = notifier;
+        mStore = store;
+        mCharging = charging;
+    }
+
+    /**
+     * Returns the process-wide controller, creating it and restoring the saved
+     * profile on first use.
+     */
+    public static synchronized PowerProfileController getInstance(Context context) {
+        if (sInstance == null) {
+            final Executor executor = Executors.newSingleThreadExecutor(r -> new Thread(r, TAG));
+            final SystemPowerEffects effects =
+                    new SystemPowerEffects(context.getApplicationContext());
+            final PowerProfileController controller = new PowerProfileController(executor,
+                    effects, effects, effects, effects, effects, effects::isCharging);
+            // Loads preferences and registers receivers, which must not hold up
+            // the caller. Runs before any event since the executor is serial.
+            executor.execute(() -> effects.register(controller));
+            controller.restore();
+            sInstance = controller;
+        }
+        return sInstance;
+    }
+
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * @return the latest snapshot, without blocking. The selected profile stays
+     *         PERFORMANCE while the governor throttles it.
+     */
+    public State getState() {
+        return mState;
+    }
+
+    /**
+     * Re-applies the saved profile, or DEFAULT on first boot.
+     *
+     * @return a future completing once the profile was written
+     */
+    public CompletableFuture<Boolean> restore() {
+        final Event event = new Event(Type.RESTORE, null, false);
+        mRestored = event.result;
+        post(event);
+        return event.result;
+    }
+
+    /**
+     * @return the result of the latest restore, e.g. the one
+     *         {@link #getInstance(Context)} started
+     */
+    public CompletableFuture<Boolean> getRestored() {
+        return mRestored;
+    }
+
+    /**
+     * Temporarily replaces the selection, e.g. while an app with its own
+     * profile is in the foreground. The user's selection, custom profile
+     * included, is kept and comes back once the override is cleared. Nothing
+     * is persisted, and any selection the user makes meanwhile ends the
+     * override.
+     *
+     * @param profile the profile to switch to, or null to clear the override
+     * @return a future completing once the profile was written
+     */
+    public CompletableFuture<Boolean> setOverride(PowerProfile profile) {
+        final Event event = new Event(Type.OVERRIDE, profile, false);
+        post(event);
+        return event.result;
+    }
+
+    public void selectProfile(PowerProfile profile) {
+        post(new Event(Type.SELECT, profile, false));
+    }
+
+    /**
+     * Reports an edited custom profile, so it is re-applied if selected.
+     *
+     * @param newName its name after the edit, or null if it was removed
+     */
+    public void onCustomProfileChanged(String oldName, String newName) {
+        post(new Event(Type.CUSTOM_CHANGED, null, false, oldName, newName));
+    }
+
+    /**
+     * Moves on to the profile after the selected one, as a tile tap does.
+     */
+    public void cycleProfile() {
+        post(new Event(Type.CYCLE, null, false));
+    }
+
+    public void onBatterySaverChanged(boolean enabled) {
+        post(new Event(Type.SAVER_CHANGED, null, enabled));
+    }
+
+    public void onChargingChanged(boolean charging) {
+        post(new Event(Type.CHARGING_CHANGED, null, charging));
+    }
+
+    /**
+     * Reports a profile written to sconfig, by us or by anyone else.
+     */
+    public void onSconfigChanged(PowerProfile effective) {
+        post(new Event(Type.SCONFIG_CHANGED, effective, false));
+    }
+
+    /**
+     * Reports that the thermal governor wants PERFORMANCE stepped down or back
+     * up. The controller does the writing, and only while PERFORMANCE is
+     * selected.
+     */
+    public void onThrottleChanged() {
+        post(new Event(Type.THROTTLE_CHANGED, null, false));
+    }
+
+    /**
+     * Reports that the screen has been off for a while, so the screen-off
+     * profile may take over until the user is back.
+     */
+    public void onScreenOff() {
+        post(new Event(Type.SCREEN_OFF, null, false));
+    }
+
+    /**
+     * Reports that the user unlocked the device, which restores the selected
+     * profile if the screen-off one took over.
+     */
+    public void onUserPresent() {
+        post(new Event(Type.USER_PRESENT, null, false));
+    }
+
+    /**
+     * @return the profile to drop to while the screen is off, or null to stay
+     */
+    public PowerProfile getScreenOffProfile() {
+        return mStore.getScreenOffProfile();
+    }
+
+    /**
+     * Saves the profile to drop to while the screen is off. Takes effect the
+     * next time the screen goes off.
+     *
+     * @param profile DEFAULT or BATTERY, or null to stay on the selection
+     */
+    public void setScreenOffProfile(PowerProfile profile) {
+        mStore.setScreenOffProfile(profile);
+    }
+
+    /**
+     * @return how long restoring the selection took after the screen-off
+     *         profile, from the unlock until sconfig was written
+     */
+    public LatencyHistogram getRestoreLatency() {
+        return mRestoreLatency;
+    }
+
+    public void dump(PrintWriter pw) {
+        pw.println("Power profile: " + mState + " transitions=" + mTransitions);
+        pw.println("  app override: " + (mOverriding ? "active, restores " + mOverriddenSelected
+                + (mOverriddenCustom != null ? " + " + mOverriddenCustom.name : "") : "none"));
+        pw.println("  event latency: " + mLatency);
+        pw.println("  screen off: profile=" + mScreenOffProfile + " entries=" + mScreenOffEntries
+                + " restore latency: " + mRestoreLatency);
+    }
+
+    private void post(Event event) {
+        synchronized (mQueue) {
+            mQueue.add(event);
+            begin();
+            if (mDraining) {
+                return;
+            }
+            mDraining = true;
+        }
+        mExecutor.execute(mDrainRunnable);
+    }
+
+    private void drain() {
+        while (true) {
+            final Event event;
+            synchronized (mQueue) {
+                event = mQueue.poll();
+                if (event == null) {
+                    mDraining = false;
+                    return;
+                }
+            }
+            mEventWrites.clear();
+            boolean handled = true;
+            try {
+                handle(event);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Failed to handle " + event, e);
+                handled = false;
+            }
+            complete(event, handled);
+            mLatency.record(System.nanoTime() - event.queuedNs);
+            end();
+        }
+    }
+
+    private void complete(Event event, boolean handled) {
+        if (mEventWrites.isEmpty()) {
+            event.result.complete(handled);
+            return;
+        }
+        final List<CompletableFuture<Boolean>> writes = new ArrayList<>(mEventWrites);
+        CompletableFuture.allOf(writes.toArray(new CompletableFuture[0])).whenComplete(
+                (ignored, e) -> event.result.complete(handled && e == null
+                        && writes.stream().allMatch(CompletableFuture::join)));
+    }
+
+    /**
+     * Marks the state pending until a matching {@link #end()}. Called with
+     * mQueue held.
+     */
+    private void begin() {
+        if (mInFlight++ == 0) {
+            mState = mState.withPending(true);
+        }
+    }
+
+    /**
+     * Publishes the settled state once nothing is in flight anymore. Only
+     * called on the controller thread.
+     */
+    private void end() {
+        synchronized (mQueue) {
+            if (--mInFlight > 0) {
+                return;
+            }
+        }
+        notifyListeners();
+    }
+
+    /**
+     * Keeps the state pending until the write behind the future landed.
+     */
+    private void track(CompletableFuture<Boolean> future) {
+        synchronized (mQueue) {
+            begin();
+        }
+        mEventWrites.add(future);
+        future.whenComplete((success, e) -> mExecutor.execute(this::end));
+    }
+
+    private void handle(Event event) {
+        if (DEBUG) Log.d(TAG, "Handling " + event + " selected=" + mSelected);
+        switch (event.type) {
+            case RESTORE:
+                if (!mStore.hasSaved()) {
+                    Log.i(TAG, "First boot, applying DEFAULT profile");
+                    apply(PowerProfile.DEFAULT);
+                    break;
+                }
+                final CustomProfile custom = findCustom(mStore.getSavedCustom());
+                if (custom != null) {
+                    apply(PowerProfile.DEFAULT, custom);
+                } else {
+                    final PowerProfile saved = mStore.getSaved();
+                    apply(saved != PowerProfile.UNKNOWN ? saved : PowerProfile.DEFAULT);
+                }
+                break;
+            case SELECT:
+                apply(event.profile);
+                break;
+            case CUSTOM_CHANGED:
+                if (mOverriding && mOverriddenCustom != null
+                        && mOverriddenCustom.name.equals(event.name)) {
+                    // Comes back in its edited form, or as plain DEFAULT
+                    mOverriddenCustom = findCustom(event.newName);
+                }
+                if (mCustom != null && mCustom.name.equals(event.name)) {
+                    // Falls back to plain DEFAULT once removed
+                    apply(PowerProfile.DEFAULT, findCustom(event.newName));
+                }
+                break;
+            case CYCLE:
+                if (!mStore.isProfilesEnabled()) {
+                    Log.w(TAG, "Power profiles are disabled");
+                    break;
+                }
+                cycle();
+                break;
+            case SAVER_CHANGED:
+                handleSaverChanged(event.flag);
+                break;
+            case CHARGING_CHANGED:
+                if (event.flag) {
+                    // Idle drain no longer matters
+                    restoreFromScreenOff(event);
+                }
+                if (mSelected == PowerProfile.BATTERY && mStore.isProfilesEnabled()) {
+                    // BATTERY stays selected, only battery saver follows the charger
+                    Log.d(TAG, "Charging " + (event.flag ? "started" : "stopped")
+                            + " on battery profile");
+                    setBatterySaver(!event.flag);
+                }
+                break;
+            case SCONFIG_CHANGED:
+                handleSconfigChanged(event.profile);
+                break;
+            case THROTTLE_CHANGED:
+                handleThrottleChanged();
+                break;
+            case SCREEN_OFF:
+                handleScreenOff();
+                break;
+            case USER_PRESENT:
+                restoreFromScreenOff(event);
+                break;
+            case OVERRIDE:
+                handleOverride(event.profile);
+                break;
+        }
+    }
+
+    private void handleOverride(PowerProfile profile) {
+        if (profile == PowerProfile.UNKNOWN) {
+            Log.w(TAG, "Ignoring override to an unknown profile");
+            return;
+        }
+        if (profile == null) {
+            if (!mOverriding) {
+                return;
+            }
+            Log.d(TAG, "App override cleared, restoring " + mOverriddenSelected
+                    + (mOverriddenCustom != null ? " + " + mOverriddenCustom.name : ""));
+            mOverriding = false;
+            // The custom profile may have been edited or removed meanwhile
+            final CustomProfile custom = mOverriddenCustom != null
+                    ? findCustom(mOverriddenCustom.name) : null;
+            apply(mOverriddenSelected, custom, false);
+            return;
+        }
+        if (!mOverriding) {
+            mOverriddenSelected = mSelected != PowerProfile.UNKNOWN
+                    ? mSelected : PowerProfile.DEFAULT;
+            mOverriddenCustom = mCustom;
+            mOverriding = true;
+        }
+        if (profile == PowerProfile.PERFORMANCE) {
+            // An app that asks for PERFORMANCE is most likely a game loading
+            mBackend.beginGameLoading();
+        }
+        if (profile == mSelected && mCustom == null) {
+            return;
+        }
+        Log.d(TAG, "App override to " + profile);
+        apply(profile, null, false);
+    }
+
+    private void handleSaverChanged(boolean enabled) {
+        // Read live: the charger may have turned saver off before its own event
+        // reached the queue
+        final boolean charging = mCharging.getAsBoolean();
+        if (enabled && !charging && mSelected != PowerProfile.PERFORMANCE) {
+            if (mSelected != PowerProfile.BATTERY) {
+                Log.d(TAG, "Battery saver enabled, switching to battery profile");
+                apply(PowerProfile.BATTERY);
+            }
+        } else if (!enabled && !charging && mSelected == PowerProfile.BATTERY) {
+            final PowerProfile previous = mStore.getPrevious();
+            if (previous != PowerProfile.BATTERY && previous != PowerProfile.UNKNOWN) {
+                Log.d(TAG, "Battery saver disabled, restoring previous profile: " + previous);
+                apply(previous);
+            } else {
+                Log.d(TAG, "Battery saver disabled, switching to DEFAULT");
+                apply(PowerProfile.DEFAULT);
+            }
+        }
+    }
+
+    private void handleSconfigChanged(PowerProfile effective) {
+        if (effective == mSelected || effective == mScreenOffProfile) {
+            return;
+        }
+        synchronized (mQueue) {
+            // Besides this event, something of ours is queued or being
+            // written, so the value may be one of our own intermediate ones
+            // rather than someone else's
+            if (mInFlight > 1) {
+                if (DEBUG) Log.d(TAG, "Ignoring sconfig " + effective + " while busy");
+                return;
+            }
+        }
+        if (effective == PowerProfile.DEFAULT && mSelected == PowerProfile.PERFORMANCE
+                && mThrottled) {
+            // The governor stepping down, not a new selection
+            return;
+        }
+        if (effective == PowerProfile.UNKNOWN) {
+            // Nothing we could select, so put ours back rather than show the
+            // tile as disabled
+            final PowerProfile profile = mSelected != PowerProfile.UNKNOWN
+                    ? mSelected : PowerProfile.DEFAULT;
+            Log.w(TAG, "Unknown profile detected, re-applying " + profile);
+            apply(profile, mCustom, !mOverriding);
+            return;
+        }
+        Log.d(TAG, "Power profile changed externally: " + effective);
+        // Adopt it as a selection, so touch boost, battery saver, the
+        // notification and the saved profile follow. Any custom caps go, as
+        // they only make sense on top of our own DEFAULT.
+        apply(effective, null);
+    }
+
+    private void handleThrottleChanged() {
+        // Read live, a later report may already have reverted this one
+        final boolean throttled = mBackend.isThrottled();
+        if (mSelected != PowerProfile.PERFORMANCE || mScreenOffProfile != null
+                || throttled == mThrottled) {
+            return;
+        }
+        Log.d(TAG, (throttled ? "Stepping PERFORMANCE down to DEFAULT"
+                : "Restoring PERFORMANCE") + " for the thermal governor");
+        mThrottled = throttled;
+        track(mBackend.applyStep(throttled ? PowerProfile.DEFAULT : PowerProfile.PERFORMANCE));
+        notifyListeners();
+    }
+
+    private void handleScreenOff() {
+        final PowerProfile target = mStore.getScreenOffProfile();
+        if (target == null || target == mSelected || mScreenOffProfile != null
+                || mSelected == PowerProfile.UNKNOWN || !mStore.isProfilesEnabled()
+                || mCharging.getAsBoolean()) {
+            return;
+        }
+        Log.d(TAG, "Screen off, switching " + mSelected + " to " + target);
+        // The system runs the target profile: sconfig, sysprop and Power HAL
+        // modes follow it and the governor stands down. The selection, the
+        // saved profile and the custom caps stay, and restoreFromScreenOff()
+        // re-applies the selection, which brings all of the former back.
+        track(mBackend.apply(target));
+        mThrottled = false;
+        mScreenOffProfile = target;
+        mScreenOffEntries++;
+    }
+
+    /**
+     * Re-applies the selection after the screen-off profile took over. This
+     * also restarts the governor for PERFORMANCE. A step down from before the
+     * screen went off is not carried over; the governor re-evaluates afresh.
+     */
+    private void restoreFromScreenOff(Event event) {
+        if (mScreenOffProfile == null) {
+            return;
+        }
+        mScreenOffProfile = null;
+        final PowerProfile profile = mSelected;
+        track(mBackend.apply(profile).whenComplete((success, e) -> {
+            final long latencyNs = System.nanoTime() - event.queuedNs;
+            mRestoreLatency.record(latencyNs);
+            Log.i(TAG, "Restored " + profile + " after screen off in "
+                    + latencyNs / 1000 + "us");
+        }));
+    }
+
+    /**
+     * Moves on to the next profile: the built-in ones in their order, then the
+     * custom ones after PERFORMANCE, then back to DEFAULT.
+     */
+    private void cycle() {
+        final List<CustomProfile> customs = mStore.getCustomProfiles();
+        if (mCustom != null) {
+            int index = customs.size();
+            for (int i = 0; i < customs.size(); i++) {
+                if (customs.get(i).name.equals(mCustom.name)) {
+                    index = i;
+                    break;
+                }
+            }
+            apply(PowerProfile.DEFAULT, index + 1 < customs.size() ? customs.get(index + 1) : null);
+        } else if (mSelected == PowerProfile.PERFORMANCE && !customs.isEmpty()) {
+            apply(PowerProfile.DEFAULT, customs.get(0));
+        } else {
+            apply(mSelected.getNext());
+        }
+    }
+
+    private CustomProfile findCustom(String name) {
+        if (name == null) {
+            return null;
+        }
+        for (CustomProfile profile : mStore.getCustomProfiles()) {
+            if (profile.name.equals(name)) {
+                return profile;
+            }
+        }
+        return null;
+    }
+
+    private void apply(PowerProfile profile) {
+        apply(profile, null);
+    }
+
+    private void apply(PowerProfile profile, CustomProfile custom) {
+        // A selection of the user's own ends any app override
+        mOverriding = false;
+        apply(profile, custom, true);
+    }
+
+    /**
+     * @param persist whether this is the user's selection, rather than an app
+     *        override or the way back from one
+     */
+    private void apply(PowerProfile profile, CustomProfile custom, boolean persist) {
+        final PowerProfile previous = mSelected;
+        mScreenOffProfile = null;
+        if (persist && profile == PowerProfile.BATTERY && previous != PowerProfile.BATTERY
+                && previous != PowerProfile.UNKNOWN) {
+            mStore.setPrevious(previous);
+        }
+
+        track(mBackend.apply(profile));
+        // The governor starts over on every applied profile
+        mThrottled = false;
+        if (persist) {
+            // Saved as the global touch sampling state. App overrides leave it
+            // alone, AppProfileService writes the app's touch state after them.
+            mTouchBoost.setTouchBoostEnabled(profile == PowerProfile.PERFORMANCE);
+        }
+        setBatterySaver(profile == PowerProfile.BATTERY && !mCharging.getAsBoolean());
+        mNotifier.setPerformanceShown(profile == PowerProfile.PERFORMANCE);
+        if (custom != null || mCustom != null) {
+            track(mBackend.applyCaps(custom));
+        }
+        if (persist) {
+            mStore.setSaved(profile);
+            mStore.setSavedCustom(custom != null ? custom.name : null);
+        }
+
+        mSelected = profile;
+        mCustom = custom;
+        mTransitions++;
+        Log.d(TAG, "Applied power profile: " + previous + " -> " + profile
+                + (custom != null ? " + " + custom.name : ""));
+        notifyListeners();
+    }
+
+    private void setBatterySaver(boolean enabled) {
+        if (mSaver.isSaverEnabled() != enabled) {
+            mSaver.setSaverEnabled(enabled);
+            Log.d(TAG, "Battery saver " + (enabled ? "enabled" : "disabled"));
+        }
+    }
+
+    private void notifyListeners() {
+        final boolean enabled = mStore.isProfilesEnabled();
+        final State state;
+        synchronized (mQueue) {
+            state = new State(mSelected, mCustom, mThrottled, enabled, mInFlight > 0);
+            if (state.equals(mState)) {
+                return;
+            }
+            mState = state;
+        }
+        for (Listener listener : mListeners) {
+            listener.onStateChanged(state);
+        }
+    }
+}
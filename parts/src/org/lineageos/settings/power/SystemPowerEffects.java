@@ -0,0 +1,352 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.settings.power;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.database.ContentObserver;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.os.SystemProperties;
+import android.provider.Settings;
+import android.util.Log;
+
+import androidx.preference.PreferenceManager;
+
+import org.lineageos.settings.R;
+import org.lineageos.settings.touchsampling.TouchSamplingService;
+import org.lineageos.settings.touchsampling.TouchSamplingSettingsFragment;
+import org.lineageos.settings.touchsampling.TouchSamplingUtils;
+import org.lineageos.settings.utils.BatteryStateCache;
+import org.lineageos.settings.utils.SysfsNode;
+import org.lineageos.settings.utils.SysfsWatcher;
+import org.lineageos.settings.utils.SysfsWriter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The real system behind PowerProfileController: sconfig, the powerhint.json
+ * nodes, battery saver, touch sampling, the performance notification and the
+ * saved selection. Also feeds the controller the system events it reacts to.
+ */
+final class SystemPowerEffects implements PowerProfileController.ProfileBackend,
+        PowerProfileController.BatterySaver, PowerProfileController.TouchBoost,
+        PowerProfileController.Notifier, PowerProfileController.ProfileStore {
+    private static final String TAG = "SystemPowerEffects";
+
+    private static final String POWER_ENABLED_KEY = "power_enabled";
+    private static final String PREV_POWER_PROFILE_PREF_KEY = "prev_power_profile";
+    private static final String CUSTOM_PROFILE_PREF_KEY = "saved_custom_profile";
+    private static final String SCREEN_OFF_PROFILE_PREF_KEY = "screen_off_profile";
+    private static final String NOTIFICATION_CHANNEL = "PowerProfileTileService";
+    private static final int NOTIFICATION_ID_PERFORMANCE = 1001;
+    private static final String ACTION_UPDATE_HTSR_TILE =
+            "org.lineageos.settings.touchsampling.ACTION_UPDATE_TILE";
+
+    // Screen-off profile until the user picks one, a PowerProfile value or -1 to stay
+    private static final String PROP_SCREEN_OFF_PROFILE =
+            "persist.sys.parts.power.screen_off_profile";
+    private static final String PROP_SCREEN_OFF_DELAY = "persist.sys.parts.power.screen_off_ms";
+    private static final int DEFAULT_SCREEN_OFF_DELAY_MS = 10000;
+
+    private final Context mContext;
+    private final SharedPreferences mSharedPrefs;
+    private final NotificationManager mNotificationManager;
+    private final PowerManager mPowerManager;
+    private final ThermalGovernor mGovernor;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    // Set up by register(), before the controller handles its first event
+    private BatteryStateCache mBatteryState;
+    private PowerHintNodes mNodes;
+    private CustomProfileStore mCustomProfiles;
+
+    // Nodes the current custom profile capped, only touched on the controller thread
+    private final Set<String> mCappedNodes = new HashSet<>();
+
+    SystemPowerEffects(Context context) {
+        mContext = context;
+        mSharedPrefs = PreferenceManager.getDefaultSharedPreferences(context);
+        mNotificationManager = context.getSystemService(NotificationManager.class);
+        mPowerManager = context.getSystemService(PowerManager.class);
+        mGovernor = ThermalGovernor.getInstance(context);
+    }
+
+    /**
+     * Loads everything that needs disk or binder calls and starts forwarding
+     * battery saver, charger, sconfig and thermal changes to the controller,
+     * for the lifetime of the process. Runs on the controller thread.
+     */
+    void register(PowerProfileController controller) {
+        mBatteryState = BatteryStateCache.getInstance(mContext);
+        mNodes = PowerHintNodes.getInstance();
+        mCustomProfiles = CustomProfileStore.getInstance(mContext);
+
+        final NotificationChannel channel = new NotificationChannel(NOTIFICATION_CHANNEL,
+                mContext.getString(R.string.perf_mode_title),
+                NotificationManager.IMPORTANCE_DEFAULT);
+        channel.setBlockable(true);
+        mNotificationManager.createNotificationChannel(channel);
+
+        mContext.getContentResolver().registerContentObserver(
+                Settings.Global.getUriFor(Settings.Global.LOW_POWER_MODE), false,
+                new ContentObserver(mHandler) {
+                    @Override
+                    public void onChange(boolean selfChange) {
+                        controller.onBatterySaverChanged(Settings.Global.getInt(
+                                mContext.getContentResolver(),
+                                Settings.Global.LOW_POWER_MODE, 0) == 1);
+                    }
+                });
+        mBatteryState.addListener(controller::onChargingChanged);
+        mGovernor.addListener(throttled -> controller.onThrottleChanged());
+        // The listener only queues an event, so it can run on the watcher thread
+        SysfsWatcher.getInstance().watch(PowerProfile.SCONFIG_PATH, Runnable::run,
+                (path, value) -> controller.onSconfigChanged(PowerProfile.fromValue(value)));
+
+        // Screen off only counts once it lasted, so a quick glance away is free
+        final Runnable screenOffRunnable = controller::onScreenOff;
+        final IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_SCREEN_OFF);
+        filter.addAction(Intent.ACTION_SCREEN_ON);
+        filter.addAction(Intent.ACTION_USER_PRESENT);
+        mContext.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                switch (intent.getAction()) {
+                    case Intent.ACTION_SCREEN_OFF:
+                        mHandler.postDelayed(screenOffRunnable, SystemProperties.getInt(
+                                PROP_SCREEN_OFF_DELAY, DEFAULT_SCREEN_OFF_DELAY_MS));
+                        break;
+                    case Intent.ACTION_SCREEN_ON:
+                        mHandler.removeCallbacks(screenOffRunnable);
+                        break;
+                    case Intent.ACTION_USER_PRESENT:
+                        controller.onUserPresent();
+                        break;
+                }
+            }
+        }, filter, null, mHandler);
+    }
+
+    boolean isCharging() {
+        return mBatteryState.isCharging();
+    }
+
+    // ProfileBackend
+
+    @Override
+    public CompletableFuture<Boolean> apply(PowerProfile profile) {
+        final CompletableFuture<Boolean> written = profile.apply();
+        mGovernor.onProfileApplied(profile);
+        return written;
+    }
+
+    @Override
+    public CompletableFuture<Boolean> applyStep(PowerProfile profile) {
+        final CompletableFuture<Boolean> written = profile.apply();
+        if (profile != PowerProfile.PERFORMANCE) {
+            // Stepped down for heat, so hold the HAL's sustained caps as well
+            PowerHalHints.applyThrottled();
+        }
+        return written;
+    }
+
+    @Override
+    public void beginGameLoading() {
+        PowerHalHints.beginGameLoading();
+    }
+
+    @Override
+    public boolean isThrottled() {
+        return mGovernor.isThrottled();
+    }
+
+    @Override
+    public CompletableFuture<Boolean> applyCaps(CustomProfile custom) {
+        final Map<String, String> caps = custom != null ? custom.caps : Collections.emptyMap();
+        final List<CompletableFuture<Boolean>> writes = new ArrayList<>();
+        for (String name : mCappedNodes) {
+            final PowerHintNodes.Node node = mNodes.get(name);
+            if (node != null && !caps.containsKey(name)) {
+                writes.add(writeNode(node, node.defaultValue));
+            }
+        }
+        mCappedNodes.clear();
+        for (Map.Entry<String, String> cap : caps.entrySet()) {
+            final PowerHintNodes.Node node = mNodes.get(cap.getKey());
+            if (node != null) {
+                writes.add(writeNode(node, cap.getValue()));
+                mCappedNodes.add(node.name);
+            }
+        }
+        return CompletableFuture.allOf(writes.toArray(new CompletableFuture[0]))
+                .thenApply(ignored -> writes.stream().allMatch(CompletableFuture::join));
+    }
+
+    private static CompletableFuture<Boolean> writeNode(PowerHintNodes.Node node, String value) {
+        final SysfsNode sysfsNode = SysfsNode.get(node.path);
+        // libperfmgr writes these nodes behind our back, so a value we wrote
+        // earlier says nothing about what they hold now
+        sysfsNode.setShadowTtl(0);
+        return SysfsWriter.getInstance().write(sysfsNode, value)
+                .thenApply(success -> {
+                    if (!success) {
+                        Log.e(TAG, "Failed to set " + node.name + " to " + value);
+                    }
+                    return success;
+                });
+    }
+
+    // BatterySaver
+
+    @Override
+    public boolean isSaverEnabled() {
+        return mPowerManager.isPowerSaveMode();
+    }
+
+    @Override
+    public void setSaverEnabled(boolean enabled) {
+        try {
+            Settings.Global.putInt(mContext.getContentResolver(),
+                    Settings.Global.LOW_POWER_MODE, enabled ? 1 : 0);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Failed to toggle battery saver", e);
+        }
+    }
+
+    // TouchBoost
+
+    @Override
+    public void setTouchBoostEnabled(boolean enabled) {
+        TouchSamplingUtils.writeTouchSamplingState(enabled ? 1 : 0);
+
+        // Keep the touch sampling settings page in sync
+        mContext.getSharedPreferences(TouchSamplingSettingsFragment.SHAREDHTSR,
+                Context.MODE_PRIVATE).edit()
+                .putBoolean(TouchSamplingSettingsFragment.HTSR_STATE, enabled).apply();
+
+        final Intent serviceIntent = new Intent(mContext, TouchSamplingService.class);
+        if (enabled) {
+            mContext.startService(serviceIntent);
+        } else if (TouchSamplingUtils.getPerAppHtsrEnabledApps(mContext).isEmpty()) {
+            // Per-app touch sampling still needs the service
+            mContext.stopService(serviceIntent);
+        }
+        mContext.sendBroadcast(new Intent(ACTION_UPDATE_HTSR_TILE));
+    }
+
+    // Notifier
+
+    @Override
+    public void setPerformanceShown(boolean shown) {
+        if (!shown) {
+            mNotificationManager.cancel(NOTIFICATION_ID_PERFORMANCE);
+            return;
+        }
+        final PendingIntent pendingIntent = PendingIntent.getActivity(mContext, 0,
+                new Intent(Settings.ACTION_SETTINGS),
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+        final Notification notification = new Notification.Builder(mContext,
+                NOTIFICATION_CHANNEL)
+                .setContentTitle(mContext.getString(R.string.perf_mode_title))
+                .setContentText(mContext.getString(R.string.perf_mode_notification))
+                .setSmallIcon(R.drawable.ic_power_performance)
+                .setContentIntent(pendingIntent)
+                .setOngoing(true)
+                .build();
+        mNotificationManager.notify(NOTIFICATION_ID_PERFORMANCE, notification);
+    }
+
+    // ProfileStore
+
+    @Override
+    public boolean isProfilesEnabled() {
+        return mSharedPrefs.getBoolean(POWER_ENABLED_KEY, true);
+    }
+
+    @Override
+    public boolean hasSaved() {
+        return mSharedPrefs.contains(PowerProfile.PREF_SAVED_PROFILE);
+    }
+
+    @Override
+    public PowerProfile getSaved() {
+        return PowerProfile.fromValue(mSharedPrefs.getInt(PowerProfile.PREF_SAVED_PROFILE,
+                PowerProfile.DEFAULT.getValue()));
+    }
+
+    @Override
+    public void setSaved(PowerProfile profile) {
+        mSharedPrefs.edit().putInt(PowerProfile.PREF_SAVED_PROFILE, profile.getValue()).apply();
+    }
+
+    @Override
+    public PowerProfile getPrevious() {
+        return PowerProfile.fromValue(mSharedPrefs.getInt(PREV_POWER_PROFILE_PREF_KEY,
+                PowerProfile.DEFAULT.getValue()));
+    }
+
+    @Override
+    public void setPrevious(PowerProfile profile) {
+        mSharedPrefs.edit().putInt(PREV_POWER_PROFILE_PREF_KEY, profile.getValue()).apply();
+    }
+
+    @Override
+    public List<CustomProfile> getCustomProfiles() {
+        return mCustomProfiles.getProfiles();
+    }
+
+    @Override
+    public String getSavedCustom() {
+        return mSharedPrefs.getString(CUSTOM_PROFILE_PREF_KEY, null);
+    }
+
+    @Override
+    public void setSavedCustom(String name) {
+        mSharedPrefs.edit().putString(CUSTOM_PROFILE_PREF_KEY, name).apply();
+    }
+
+    @Override
+    public PowerProfile getScreenOffProfile() {
+        final int value = mSharedPrefs.contains(SCREEN_OFF_PROFILE_PREF_KEY)
+                ? mSharedPrefs.getInt(SCREEN_OFF_PROFILE_PREF_KEY, -1)
+                : SystemProperties.getInt(PROP_SCREEN_OFF_PROFILE, -1);
+        final PowerProfile profile = PowerProfile.fromValue(value);
+        return profile != PowerProfile.UNKNOWN ? profile : null;
+    }
+
+    @Override
+    public void setScreenOffProfile(PowerProfile profile) {
+        mSharedPrefs.edit().putInt(SCREEN_OFF_PROFILE_PREF_KEY,
+                profile != null ? profile.getValue() : -1).apply();
+    }
+}
@@ -0,0 +1,504 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.settings.power;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.os.SystemProperties;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.util.Log;
+
+import org.lineageos.settings.utils.FileUtils;
+import org.lineageos.settings.utils.LatencyHistogram;
+import org.lineageos.settings.utils.SysfsNode;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Samples per-cluster CPU load and frequency residency and the GPU load, so the
+ * effect of a power profile can be seen rather than guessed.
+ *
+ * Sampling only runs while at least one consumer is attached. Every node is
+ * read through a persistent handle into a reused buffer and parsed in place,
+ * so a sample costs a few syscalls and no allocations. Samples land in fixed
+ * size rings of cumulative counters; any figure over the last n samples is
+ * the difference between two ring slots.
+ */
+public final class TelemetrySampler {
+    private static final String TAG = "TelemetrySampler";
+
+    private static final String PROP_PREFIX = "persist.sys.parts.telemetry.";
+    private static final long INTERVAL_MS =
+            SystemProperties.getLong(PROP_PREFIX + "interval_ms", 1000);
+
+    private static final int RING_SIZE = 61;
+    /** The longest span the getters accept, in samples. */
+    public static final int WINDOW = RING_SIZE - 1;
+
+    private static final String PROC_STAT = "/proc/stat";
+    private static final String CPUFREQ_DIR = "/sys/devices/system/cpu/cpufreq";
+    private static final String GPU_LOAD = "/sys/class/kgsl/kgsl-3d0/devfreq/gpu_load";
+
+    // The per-CPU lines come first, the rest of /proc/stat is never parsed
+    private static final int STAT_BUFFER_SIZE = 4096;
+    private static final int TIME_IN_STATE_BUFFER_SIZE = 2048;
+
+    public interface Consumer {
+        /**
+         * Called on the sampler thread after every sample.
+         */
+        void onSample(TelemetrySampler sampler);
+    }
+
+    private static final class Cluster {
+        final String name;
+        final int[] cpus;
+        final SysfsNode timeInState;
+        // kHz, in the order of time_in_state, or empty without cpufreq stats
+        final long[] freqs;
+        // Cumulative jiffies summed over the cluster's CPUs
+        final long[] busy = new long[RING_SIZE];
+        final long[] total = new long[RING_SIZE];
+        // Cumulative time_in_state, freqs.length entries per slot
+        final long[] residency;
+
+        Cluster(String name, int[] cpus, SysfsNode timeInState, long[] freqs) {
+            this.name = name;
+            this.cpus = cpus;
+            this.timeInState = timeInState;
+            this.freqs = freqs;
+            this.residency = new long[RING_SIZE * freqs.length];
+        }
+    }
+
+    private static TelemetrySampler sInstance;
+
+    private final Handler mHandler;
+    private final List<Consumer> mConsumers = new CopyOnWriteArrayList<>();
+    private final LatencyHistogram mSampleLatency = new LatencyHistogram();
+
+    // /proc/stat is no sysfs attribute, so it stays out of the node registry,
+    // its stats and the root redirection. Only touched on the sampler thread.
+    private FileDescriptor mStatFd;
+    private final ByteBuffer mStatBuffer = ByteBuffer.allocate(STAT_BUFFER_SIZE);
+    private final ByteBuffer mTimeInStateBuffer = ByteBuffer.allocate(TIME_IN_STATE_BUFFER_SIZE);
+
+    private Cluster[] mClusters = new Cluster[0];
+    private SysfsNode mGpuNode;
+    // Latest /proc/stat counters by CPU number
+    private long[] mCpuBusy = new long[0];
+    private long[] mCpuTotal = new long[0];
+    private final int[] mGpuLoad = new int[RING_SIZE];
+
+    // Newest slot and number of valid slots, guarded by this
+    private int mHead = -1;
+    private int mCount;
+
+    // Parse cursor, only touched on the sampler thread
+    private int mPos;
+
+    private volatile boolean mRunning;
+
+    private final Runnable mSampleRunnable = this::sample;
+
+    private TelemetrySampler() {
+        final HandlerThread thread = new HandlerThread(TAG);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+        mHandler.post(this::findClusters);
+    }
+
+    public static synchronized TelemetrySampler getInstance() {
+        if (sInstance == null) {
+            sInstance = new TelemetrySampler();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Attaches a consumer, starting the sampling if it is the first one.
+     */
+    public void addConsumer(Consumer consumer) {
+        mConsumers.add(consumer);
+        mHandler.post(this::updateRunning);
+    }
+
+    /**
+     * Detaches a consumer, stopping the sampling once none is left.
+     */
+    public void removeConsumer(Consumer consumer) {
+        mConsumers.remove(consumer);
+        mHandler.post(this::updateRunning);
+    }
+
+    public synchronized int getClusterCount() {
+        return mClusters.length;
+    }
+
+    public synchronized String getClusterName(int cluster) {
+        return mClusters[cluster].name;
+    }
+
+    /**
+     * @param span the number of sample intervals to cover, clamped to the
+     *        samples taken so far and at most {@link #WINDOW}
+     * @return the busy share of the cluster's CPUs in percent, or -1 without
+     *         enough samples
+     */
+    public synchronized int getUtilization(int cluster, int span) {
+        final int from = slot(span);
+        if (from < 0) {
+            return -1;
+        }
+        final Cluster c = mClusters[cluster];
+        final long total = c.total[mHead] - c.total[from];
+        return total > 0 ? (int) ((c.busy[mHead] - c.busy[from]) * 100 / total) : 0;
+    }
+
+    /**
+     * @param span the number of sample intervals to cover, clamped to the
+     *        samples taken so far and at most {@link #WINDOW}
+     * @return the frequency the cluster spent the most time at in kHz, or -1
+     *         without enough samples or cpufreq stats
+     */
+    public synchronized long getDominantFrequency(int cluster, int span) {
+        final int from = slot(span);
+        if (from < 0) {
+            return -1;
+        }
+        final Cluster c = mClusters[cluster];
+        final int n = c.freqs.length;
+        long best = 0;
+        long freq = -1;
+        for (int i = 0; i < n; i++) {
+            final long time = c.residency[mHead * n + i] - c.residency[from * n + i];
+            if (time > best) {
+                best = time;
+                freq = c.freqs[i];
+            }
+        }
+        return freq;
+    }
+
+    /**
+     * @return the latest GPU load in percent, or -1 if unknown
+     */
+    public synchronized int getGpuLoad() {
+        return mCount > 0 ? mGpuLoad[mHead] : -1;
+    }
+
+    public synchronized void dump(PrintWriter pw) {
+        pw.println("TelemetrySampler:");
+        pw.println("  running: " + mRunning + " (" + mConsumers.size() + " consumers, every "
+                + INTERVAL_MS + "ms)");
+        pw.println("  samples: " + mCount + ", sample cost: " + mSampleLatency);
+        final int span = Math.min(WINDOW, mCount - 1);
+        if (span < 1) {
+            return;
+        }
+        pw.println("  over the last " + span + " intervals:");
+        for (int i = 0; i < mClusters.length; i++) {
+            final Cluster c = mClusters[i];
+            pw.println("  " + c.name + " cpus=" + Arrays.toString(c.cpus)
+                    + " load=" + getUtilization(i, 1) + "% avg=" + getUtilization(i, span) + "%");
+            final int from = slot(span);
+            final int n = c.freqs.length;
+            long total = 0;
+            for (int j = 0; j < n; j++) {
+                total += c.residency[mHead * n + j] - c.residency[from * n + j];
+            }
+            for (int j = 0; j < n && total > 0; j++) {
+                final long time = c.residency[mHead * n + j] - c.residency[from * n + j];
+                if (time > 0) {
+                    pw.println(String.format("    %8d kHz: %5.1f%%", c.freqs[j],
+                            time * 100f / total));
+                }
+            }
+        }
+        long gpuSum = 0;
+        int gpuSamples = 0;
+        for (int ago = 0; ago < span; ago++) {
+            final int load = mGpuLoad[(mHead - ago + RING_SIZE) % RING_SIZE];
+            if (load >= 0) {
+                gpuSum += load;
+                gpuSamples++;
+            }
+        }
+        pw.println("  gpu load=" + getGpuLoad() + "% avg="
+                + (gpuSamples > 0 ? gpuSum / gpuSamples : -1) + "%");
+    }
+
+    /**
+     * @return the slot sampled span intervals before the newest one, or the
+     *         oldest one if fewer were taken, or -1 without a single interval
+     */
+    private int slot(int span) {
+        span = Math.min(span, mCount - 1);
+        if (span < 1) {
+            return -1;
+        }
+        return (mHead - span + RING_SIZE) % RING_SIZE;
+    }
+
+    private void updateRunning() {
+        final boolean run = !mConsumers.isEmpty();
+        if (run == mRunning) {
+            return;
+        }
+        mRunning = run;
+        mHandler.removeCallbacks(mSampleRunnable);
+        if (run) {
+            synchronized (this) {
+                // Counters may have moved a lot while idle, start a fresh window
+                mCount = 0;
+            }
+            mHandler.post(mSampleRunnable);
+        }
+        Log.i(TAG, run ? "Sampling started" : "Sampling stopped");
+    }
+
+    private void sample() {
+        if (!mRunning) {
+            return;
+        }
+        final long start = SystemClock.elapsedRealtimeNanos();
+        readProcStat();
+        synchronized (this) {
+            final int slot = (mHead + 1) % RING_SIZE;
+            for (Cluster c : mClusters) {
+                long busy = 0;
+                long total = 0;
+                for (int cpu : c.cpus) {
+                    busy += mCpuBusy[cpu];
+                    total += mCpuTotal[cpu];
+                }
+                c.busy[slot] = busy;
+                c.total[slot] = total;
+                readTimeInState(c, slot);
+            }
+            mGpuLoad[slot] = mGpuNode != null ? mGpuNode.readInt(-1) : -1;
+            mHead = slot;
+            if (mCount < RING_SIZE) {
+                mCount++;
+            }
+        }
+        mSampleLatency.record(SystemClock.elapsedRealtimeNanos() - start);
+
+        for (Consumer consumer : mConsumers) {
+            consumer.onSample(this);
+        }
+        mHandler.postDelayed(mSampleRunnable, INTERVAL_MS);
+    }
+
+    /**
+     * Reads /proc/stat into mStatBuffer through a descriptor kept open across
+     * samples. A failed read drops it, so the next sample reopens.
+     *
+     * @return the number of bytes read, or -1 on failure
+     */
+    private int readStat() {
+        mStatBuffer.clear();
+        try {
+            if (mStatFd == null) {
+                mStatFd = Os.open(PROC_STAT, OsConstants.O_RDONLY | OsConstants.O_CLOEXEC, 0);
+            }
+            long position = 0;
+            int read;
+            while (mStatBuffer.hasRemaining()
+                    && (read = Os.pread(mStatFd, mStatBuffer, position)) > 0) {
+                position += read;
+            }
+            return mStatBuffer.position();
+        } catch (ErrnoException | IOException e) {
+            Log.e(TAG, "Failed to read " + PROC_STAT, e);
+            if (mStatFd != null) {
+                try {
+                    Os.close(mStatFd);
+                } catch (ErrnoException ignored) {
+                    // Ignored, not much we can do anyway
+                }
+                mStatFd = null;
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Updates the per-CPU counters from the "cpuN user nice system idle iowait
+     * irq softirq steal" lines. Offline CPUs are missing and keep their counters.
+     */
+    private void readProcStat() {
+        final int length = readStat();
+        if (length <= 0) {
+            return;
+        }
+        final byte[] data = mStatBuffer.array();
+        mPos = 0;
+        while (mPos + 3 < length && data[mPos] == 'c' && data[mPos + 1] == 'p'
+                && data[mPos + 2] == 'u') {
+            mPos += 3;
+            // The aggregate "cpu " line has no number
+            final long cpu = data[mPos] == ' ' ? -1 : nextLong(data, length);
+            if (cpu >= 0 && cpu < mCpuTotal.length) {
+                long total = 0;
+                long idle = 0;
+                for (int field = 0; field < 8; field++) {
+                    final long value = nextLong(data, length);
+                    if (value < 0) {
+                        break;
+                    }
+                    total += value;
+                    if (field == 3 || field == 4) {
+                        idle += value;
+                    }
+                }
+                mCpuBusy[(int) cpu] = total - idle;
+                mCpuTotal[(int) cpu] = total;
+            }
+            skipLine(data, length);
+        }
+    }
+
+    private void readTimeInState(Cluster c, int slot) {
+        final int n = c.freqs.length;
+        if (n == 0) {
+            return;
+        }
+        final int length = c.timeInState.read(mTimeInStateBuffer);
+        final byte[] data = mTimeInStateBuffer.array();
+        boolean valid = length > 0;
+        mPos = 0;
+        for (int i = 0; i < n; i++) {
+            if (valid) {
+                final long freq = nextLong(data, length);
+                final long time = nextLong(data, length);
+                valid = freq == c.freqs[i] && time >= 0;
+                skipLine(data, length);
+                if (valid) {
+                    c.residency[slot * n + i] = time;
+                    continue;
+                }
+            }
+            // Keep the counter flat rather than make up residency
+            c.residency[slot * n + i] = mCount > 0 ? c.residency[mHead * n + i] : 0;
+        }
+    }
+
+    /**
+     * Parses the next unsigned decimal on the current line.
+     *
+     * @return the value, or -1 if the line has no more numbers
+     */
+    private long nextLong(byte[] data, int length) {
+        while (mPos < length && data[mPos] == ' ') {
+            mPos++;
+        }
+        final int start = mPos;
+        long value = 0;
+        while (mPos < length && data[mPos] >= '0' && data[mPos] <= '9') {
+            value = value * 10 + (data[mPos++] - '0');
+        }
+        return mPos == start ? -1 : value;
+    }
+
+    private void skipLine(byte[] data, int length) {
+        while (mPos < length && data[mPos++] != '\n') {
+            // Skip the rest of the line
+        }
+    }
+
+    private void findClusters() {
+        if (new File(GPU_LOAD).exists()) {
+            synchronized (this) {
+                mGpuNode = SysfsNode.get(GPU_LOAD);
+            }
+        } else {
+            Log.w(TAG, "No GPU load node, sampling the CPUs only");
+        }
+
+        final String[] policies = new File(CPUFREQ_DIR).list(
+                (dir, name) -> name.matches("policy\\d+"));
+        if (policies == null || policies.length == 0) {
+            Log.w(TAG, "No cpufreq policies found");
+            return;
+        }
+        Arrays.sort(policies, Comparator.comparingInt(name -> Integer.parseInt(name.substring(6))));
+
+        final List<Cluster> clusters = new ArrayList<>();
+        int cpuCount = 0;
+        for (String policy : policies) {
+            final String dir = CPUFREQ_DIR + "/" + policy;
+            final String related = FileUtils.readOneLine(dir + "/related_cpus");
+            if (related == null) {
+                continue;
+            }
+            final String[] fields = related.trim().split("\\s+");
+            final int[] cpus = new int[fields.length];
+            try {
+                for (int i = 0; i < fields.length; i++) {
+                    cpus[i] = Integer.parseInt(fields[i]);
+                    cpuCount = Math.max(cpuCount, cpus[i] + 1);
+                }
+            } catch (NumberFormatException e) {
+                Log.e(TAG, "Cannot parse the CPUs of " + policy + ": " + related);
+                continue;
+            }
+            final SysfsNode timeInState = SysfsNode.get(dir + "/stats/time_in_state");
+            clusters.add(new Cluster(policy, cpus, timeInState, readFrequencies(timeInState)));
+        }
+
+        synchronized (this) {
+            mCpuBusy = new long[cpuCount];
+            mCpuTotal = new long[cpuCount];
+            mClusters = clusters.toArray(new Cluster[0]);
+        }
+        Log.i(TAG, "Found " + clusters.size() + " CPU clusters");
+    }
+
+    private long[] readFrequencies(SysfsNode timeInState) {
+        final int length = timeInState.read(mTimeInStateBuffer);
+        if (length <= 0) {
+            Log.w(TAG, "No frequency stats in " + timeInState.getPath());
+            return new long[0];
+        }
+        final byte[] data = mTimeInStateBuffer.array();
+        final long[] freqs = new long[length];
+        int n = 0;
+        mPos = 0;
+        while (mPos < length) {
+            final long freq = nextLong(data, length);
+            if (freq < 0) {
+                break;
+            }
+            freqs[n++] = freq;
+            skipLine(data, length);
+        }
+        return Arrays.copyOf(freqs, n);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.settings.power;
+
+import android.service.quicksettings.Tile;
+import android.service.quicksettings.TileService;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
+import org.lineageos.settings.R;
+
+/**
+ * Shows the load and most used frequency of every CPU cluster and the GPU load
+ * while the tile is visible. The sampler only runs while the tile listens.
+ */
+public class TelemetryTileService extends TileService {
+
+    private TelemetrySampler mSampler;
+    private boolean mListening;
+
+    private final TelemetrySampler.Consumer mConsumer = sampler -> {
+        final String subtitle = formatSubtitle(sampler);
+        getMainExecutor().execute(() -> {
+            if (mListening) {
+                updateTileState(subtitle);
+            }
+        });
+    };
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mSampler = TelemetrySampler.getInstance();
+    }
+
+    @Override
+    public void onStartListening() {
+        super.onStartListening();
+        mListening = true;
+        updateTileState(getString(R.string.telemetry_sampling));
+        mSampler.addConsumer(mConsumer);
+    }
+
+    @Override
+    public void onStopListening() {
+        super.onStopListening();
+        mListening = false;
+        mSampler.removeConsumer(mConsumer);
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        mSampler.dump(pw);
+    }
+
+    /**
+     * Formats e.g. "12%@1.2 40%@2.4 3%@0.8 GPU 15%": the latest load of each
+     * cluster at the frequency it spent most of the window at, in GHz.
+     */
+    private String formatSubtitle(TelemetrySampler sampler) {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < sampler.getClusterCount(); i++) {
+            final int load = sampler.getUtilization(i, 1);
+            final long freq = sampler.getDominantFrequency(i, TelemetrySampler.WINDOW);
+            if (load < 0 || freq < 0) {
+                continue;
+            }
+            builder.append(getString(R.string.telemetry_cluster, load, freq / 1000000f))
+                    .append(' ');
+        }
+        final int gpuLoad = sampler.getGpuLoad();
+        if (gpuLoad >= 0) {
+            builder.append(getString(R.string.telemetry_gpu, gpuLoad));
+        }
+        return builder.length() > 0 ? builder.toString().trim()
+                : getString(R.string.telemetry_sampling);
+    }
+
+    private void updateTileState(String subtitle) {
+        Tile tile = getQsTile();
+        if (tile == null) return;
+
+        tile.setLabel(getString(R.string.telemetry_title));
+        tile.setState(Tile.STATE_ACTIVE);
+        tile.setSubtitle(subtitle);
+        tile.updateTile();
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.settings.power;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.os.SystemProperties;
+import android.util.Log;
+
+import org.lineageos.settings.utils.FileUtils;
+import org.lineageos.settings.utils.SysfsNode;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Decides when PERFORMANCE should step down to DEFAULT before the device
+ * throttles on its own.
+ *
+ * While PERFORMANCE is selected the governor samples the thermal headroom and
+ * the skin and CPU thermal zones. Once any of them crosses its high threshold
+ * it reports the profile as throttled, and only once all of them fell below
+ * their low thresholds as restored. Stepping down happens right away, coming
+ * back up only once the step down lasted MIN_DWELL_MS. The governor writes nothing itself: PowerProfileController applies
+ * the step on its own thread, so it never races a selection of the user's.
+ */
+public final class ThermalGovernor {
+    private static final String TAG = "ThermalGovernor";
+
+    private static final long SAMPLE_INTERVAL_MS = 5000;
+    private static final int HEADROOM_FORECAST_S = 10;
+
+    private static final String PROP_PREFIX = "persist.sys.parts.thermal.";
+    private static final long MIN_DWELL_MS =
+            SystemProperties.getLong(PROP_PREFIX + "dwell_ms", 60000);
+    // Headroom of 1.0 is where the framework starts to throttle
+    private static final float HEADROOM_HIGH =
+            SystemProperties.getInt(PROP_PREFIX + "headroom_high", 90) / 100f;
+    private static final float HEADROOM_LOW =
+            SystemProperties.getInt(PROP_PREFIX + "headroom_low", 70) / 100f;
+    private static final int SKIN_HIGH = SystemProperties.getInt(PROP_PREFIX + "skin_high", 45);
+    private static final int SKIN_LOW = SystemProperties.getInt(PROP_PREFIX + "skin_low", 40);
+    private static final int CPU_HIGH = SystemProperties.getInt(PROP_PREFIX + "cpu_high", 90);
+    private static final int CPU_LOW = SystemProperties.getInt(PROP_PREFIX + "cpu_low", 75);
+
+    private static final String THERMAL_DIR = "/sys/class/thermal";
+
+    public interface Listener {
+        /**
+         * Called on the main thread when PERFORMANCE should be stepped down or
+         * restored.
+         */
+        void onThrottleChanged(boolean throttled);
+    }
+
+    private static ThermalGovernor sInstance;
+
+    private final PowerManager mPowerManager;
+    private final Handler mHandler;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final List<Listener> mListeners = new CopyOnWriteArrayList<>();
+    private final List<SysfsNode> mSkinZones = new ArrayList<>();
+    private final List<SysfsNode> mCpuZones = new ArrayList<>();
+
+    private volatile boolean mRunning;
+    private volatile boolean mThrottled;
+    private volatile long mLastTransition;
+
+    private final Runnable mSampleRunnable = this::sample;
+
+    private ThermalGovernor(Context context) {
+        mPowerManager = context.getSystemService(PowerManager.class);
+        final HandlerThread thread = new HandlerThread(TAG);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+        mHandler.post(this::findZones);
+    }
+
+    public static synchronized ThermalGovernor getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ThermalGovernor(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * @return whether PERFORMANCE should run as DEFAULT for now
+     */
+    public boolean isThrottled() {
+        return mThrottled;
+    }
+
+    /**
+     * Tells the governor which profile was just applied in full, so it watches
+     * PERFORMANCE and stays idle otherwise.
+     */
+    public void onProfileApplied(PowerProfile profile) {
+        final boolean run = profile == PowerProfile.PERFORMANCE;
+        if (mThrottled) {
+            // The profile was applied in full, so any step down is gone, even
+            // if it was PERFORMANCE again. Done right away so callers never
+            // see the applied profile as throttled.
+            setThrottled(false, "applied " + profile);
+        }
+        mHandler.post(() -> {
+            if (run == mRunning) {
+                return;
+            }
+            mRunning = run;
+            mHandler.removeCallbacks(mSampleRunnable);
+            if (run) {
+                mHandler.post(mSampleRunnable);
+            }
+        });
+    }
+
+    private void sample() {
+        if (!mRunning) {
+            return;
+        }
+        final float headroom = mPowerManager.getThermalHeadroom(HEADROOM_FORECAST_S);
+        final int skin = maxTemp(mSkinZones);
+        final int cpu = maxTemp(mCpuZones);
+        final String readings = "headroom=" + headroom + " skin=" + skin + "C cpu=" + cpu + "C";
+
+        // NaN headroom (unsupported or rate limited) compares false on both sides
+        if (!mThrottled) {
+            // A hot device steps down at once
+            if (headroom >= HEADROOM_HIGH || skin >= SKIN_HIGH || cpu >= CPU_HIGH) {
+                setThrottled(true, readings);
+            }
+        } else if (SystemClock.elapsedRealtime() - mLastTransition >= MIN_DWELL_MS
+                && !(headroom >= HEADROOM_LOW) && skin < SKIN_LOW && cpu < CPU_LOW) {
+            setThrottled(false, readings);
+        }
+        mHandler.postDelayed(mSampleRunnable, SAMPLE_INTERVAL_MS);
+    }
+
+    private void setThrottled(boolean throttled, String reason) {
+        Log.i(TAG, (throttled ? "PERFORMANCE should step down: "
+                : "PERFORMANCE may come back: ") + reason);
+        mThrottled = throttled;
+        mLastTransition = SystemClock.elapsedRealtime();
+        mMainHandler.post(() -> {
+            for (Listener listener : mListeners) {
+                listener.onThrottleChanged(throttled);
+            }
+        });
+    }
+
+    /**
+     * @return the hottest zone in degrees Celsius, or Integer.MIN_VALUE if none
+     *         could be read
+     */
+    private static int maxTemp(List<SysfsNode> zones) {
+        int max = Integer.MIN_VALUE;
+        for (SysfsNode zone : zones) {
+            final int milliCelsius = zone.readInt(Integer.MIN_VALUE);
+            if (milliCelsius != Integer.MIN_VALUE) {
+                max = Math.max(max, milliCelsius / 1000);
+            }
+        }
+        return max;
+    }
+
+    private void findZones() {
+        final String skinMatch = SystemProperties.get(PROP_PREFIX + "skin_zone", "skin");
+        final String[] zones = new File(THERMAL_DIR).list();
+        if (zones == null) {
+            Log.w(TAG, "Cannot list thermal zones, relying on headroom only");
+            return;
+        }
+        for (String zone : zones) {
+            if (!zone.startsWith("thermal_zone")) {
+                continue;
+            }
+            final String dir = THERMAL_DIR + "/" + zone;
+            final String type = FileUtils.readOneLine(dir + "/type");
+            if (type == null) {
+                continue;
+            }
+            if (type.contains(skinMatch)) {
+                mSkinZones.add(SysfsNode.get(dir + "/temp"));
+            } else if (type.startsWith("cpu")) {
+                mCpuZones.add(SysfsNode.get(dir + "/temp"));
+            }
+        }
+        Log.i(TAG, "Watching " + mSkinZones.size() + " skin and " + mCpuZones.size()
+                + " CPU thermal zones");
+    }
+}
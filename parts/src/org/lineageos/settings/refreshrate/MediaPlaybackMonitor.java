@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.settings.refreshrate;
+
+import android.content.Context;
+import android.media.AudioAttributes;
+import android.media.AudioManager;
+import android.media.AudioPlaybackConfiguration;
+import android.media.session.MediaController;
+import android.media.session.MediaSessionManager;
+import android.media.session.PlaybackState;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Tracks which package, if any, is playing media.
+ *
+ * A package counts as playing when one of its media sessions is in
+ * STATE_PLAYING while a USAGE_MEDIA audio player is active, so notification
+ * and UI sounds never qualify. Transitions are debounced: playback must hold
+ * for ENTER_DELAY_MS before it is reported, and must stay stopped for
+ * EXIT_DELAY_MS before its end is reported, so seeking and buffering do not
+ * make the display switch modes back and forth.
+ */
+final class MediaPlaybackMonitor {
+    private static final String TAG = "MediaPlaybackMonitor";
+    private static final boolean DEBUG = false;
+
+    private static final long ENTER_DELAY_MS = 1500;
+    private static final long EXIT_DELAY_MS = 3000;
+
+    interface Listener {
+        /**
+         * Called on the main thread with the package playing media, or null.
+         */
+        void onMediaPlaybackChanged(String packageName);
+    }
+
+    private final AudioManager mAudioManager;
+    private final MediaSessionManager mSessionManager;
+    private final Listener mListener;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private final List<MediaController> mControllers = new ArrayList<>();
+    private boolean mMediaAudioActive;
+    private String mPendingPackage;
+    private String mReportedPackage;
+
+    private final AudioManager.AudioPlaybackCallback mPlaybackCallback =
+            new AudioManager.AudioPlaybackCallback() {
+        @Override
+        public void onPlaybackConfigChanged(List<AudioPlaybackConfiguration> configs) {
+            mMediaAudioActive = hasActiveMediaPlayer(configs);
+            update();
+        }
+    };
+
+    private final MediaSessionManager.OnActiveSessionsChangedListener mSessionsListener =
+            this::setControllers;
+
+    private final MediaController.Callback mControllerCallback = new MediaController.Callback() {
+        @Override
+        public void onPlaybackStateChanged(PlaybackState state) {
+            update();
+        }
+    };
+
+    private final Runnable mReportRunnable = () -> {
+        if (DEBUG) Log.d(TAG, "Media playback: " + mPendingPackage);
+        mReportedPackage = mPendingPackage;
+        mListener.onMediaPlaybackChanged(mReportedPackage);
+    };
+
+    MediaPlaybackMonitor(Context context, Listener listener) {
+        mAudioManager = context.getSystemService(AudioManager.class);
+        mSessionManager = context.getSystemService(MediaSessionManager.class);
+        mListener = listener;
+    }
+
+    void start() {
+        mAudioManager.registerAudioPlaybackCallback(mPlaybackCallback, mHandler);
+        mMediaAudioActive = hasActiveMediaPlayer(
+                mAudioManager.getActivePlaybackConfigurations());
+        try {
+            mSessionManager.addOnActiveSessionsChangedListener(mSessionsListener, null, mHandler);
+            setControllers(mSessionManager.getActiveSessions(null));
+        } catch (SecurityException e) {
+            Log.e(TAG, "Cannot watch media sessions", e);
+        }
+    }
+
+    void stop() {
+        mAudioManager.unregisterAudioPlaybackCallback(mPlaybackCallback);
+        mSessionManager.removeOnActiveSessionsChangedListener(mSessionsListener);
+        setControllers(null);
+        mHandler.removeCallbacks(mReportRunnable);
+    }
+
+    private void setControllers(List<MediaController> controllers) {
+        for (MediaController controller : mControllers) {
+            controller.unregisterCallback(mControllerCallback);
+        }
+        mControllers.clear();
+        if (controllers != null) {
+            for (MediaController controller : controllers) {
+                controller.registerCallback(mControllerCallback, mHandler);
+                mControllers.add(controller);
+            }
+        }
+        update();
+    }
+
+    private void update() {
+        String playing = null;
+        if (mMediaAudioActive) {
+            for (MediaController controller : mControllers) {
+                final PlaybackState state = controller.getPlaybackState();
+                if (state != null && state.getState() == PlaybackState.STATE_PLAYING) {
+                    playing = controller.getPackageName();
+                    break;
+                }
+            }
+        }
+        if (Objects.equals(playing, mPendingPackage)) {
+            return;
+        }
+
+        mPendingPackage = playing;
+        mHandler.removeCallbacks(mReportRunnable);
+        if (!Objects.equals(playing, mReportedPackage)) {
+            mHandler.postDelayed(mReportRunnable, playing != null ? ENTER_DELAY_MS : EXIT_DELAY_MS);
+        }
+    }
+
+    private static boolean hasActiveMediaPlayer(List<AudioPlaybackConfiguration> configs) {
+        for (AudioPlaybackConfiguration config : configs) {
+            if (config.isActive()
+                    && config.getAudioAttributes().getUsage() == AudioAttributes.USAGE_MEDIA) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
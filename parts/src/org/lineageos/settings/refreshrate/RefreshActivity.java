@@ -17,9 +17,13 @@
 package org.lineageos.settings.refreshrate;
 
 import android.os.Bundle;
+import android.view.Menu;
+import android.view.MenuItem;
 
 import com.android.settingslib.collapsingtoolbar.CollapsingToolbarBaseActivity;
 
+import org.lineageos.settings.R;
+
 public class RefreshActivity extends CollapsingToolbarBaseActivity {
     private static final String TAG_REFRESH = "refresh";
 
@@ -30,4 +34,25 @@ public class RefreshActivity extends CollapsingToolbarBaseActivity {
         getFragmentManager().beginTransaction().replace(com.android.settingslib.collapsingtoolbar.R.id.content_frame,
                 new RefreshSettingsFragment(), TAG_REFRESH).commit();
     }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.refresh_menu, menu);
+        menu.findItem(R.id.idle_down_ramp).setChecked(
+                RefreshRuleStore.getInstance(this).isIdleDownRampEnabled());
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == R.id.idle_down_ramp) {
+            final boolean enabled = !item.isChecked();
+            RefreshRuleStore.getInstance(this).setIdleDownRampEnabled(enabled);
+            item.setChecked(enabled);
+            // Lets the running service pick up the switch
+            RefreshUtils.startService(this);
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
 }
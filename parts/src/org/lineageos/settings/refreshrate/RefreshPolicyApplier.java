@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.settings.refreshrate;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.provider.Settings;
+import android.util.Log;
+
+import java.io.PrintWriter;
+
+/**
+ * Applies (min, peak) refresh rate pairs to the display settings.
+ *
+ * Keeps the pair currently in effect and skips writes that would not change
+ * it, since every Settings.System write costs a provider disk write and a
+ * display mode vote recomputation. The pair is re-read only after a
+ * ContentObserver reports a value other than the one we hold, i.e. one that
+ * someone else wrote; the notifications of our own writes are ignored.
+ * Not thread safe, callers are expected to stay on one thread.
+ */
+final class RefreshPolicyApplier {
+    private static final String TAG = "RefreshPolicyApplier";
+    private static final boolean DEBUG = false;
+
+    private static final String KEY_PEAK_REFRESH_RATE = "peak_refresh_rate";
+    private static final String KEY_MIN_REFRESH_RATE = "min_refresh_rate";
+
+    private final ContentResolver mResolver;
+    private final float mDefaultRate;
+
+    private final Uri mMinUri = Settings.System.getUriFor(KEY_MIN_REFRESH_RATE);
+    private final Uri mPeakUri = Settings.System.getUriFor(KEY_PEAK_REFRESH_RATE);
+
+    private volatile boolean mStale = true;
+    // Volatile since the observer compares against them from a binder thread
+    private volatile float mMinRate;
+    private volatile float mPeakRate;
+
+    private long mReads;
+    private long mWrites;
+    private long mAvoidedWrites;
+    // Only touched by the observer
+    private long mOwnChanges;
+    private long mExternalChanges;
+
+    private final ContentObserver mObserver = new ContentObserver(null) {
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            final boolean peak = mPeakUri.equals(uri);
+            final float held = peak ? mPeakRate : mMinRate;
+            final float value = Settings.System.getFloat(mResolver,
+                    peak ? KEY_PEAK_REFRESH_RATE : KEY_MIN_REFRESH_RATE, mDefaultRate);
+            if (Float.compare(value, held) == 0) {
+                // Our own write, or one that left the value we hold
+                mOwnChanges++;
+                return;
+            }
+            mExternalChanges++;
+            mStale = true;
+        }
+    };
+
+    RefreshPolicyApplier(Context context, float defaultRate) {
+        mResolver = context.getContentResolver();
+        mDefaultRate = defaultRate;
+    }
+
+    void startObserving() {
+        mStale = true;
+        mResolver.registerContentObserver(mPeakUri, false, mObserver);
+        mResolver.registerContentObserver(mMinUri, false, mObserver);
+    }
+
+    void stopObserving() {
+        mResolver.unregisterContentObserver(mObserver);
+    }
+
+    float getMinRate() {
+        refreshIfStale();
+        return mMinRate;
+    }
+
+    float getPeakRate() {
+        refreshIfStale();
+        return mPeakRate;
+    }
+
+    /**
+     * Brings the settings to the given pair, writing only the keys that differ.
+     */
+    void apply(float minRate, float peakRate) {
+        refreshIfStale();
+        final boolean minChanged = Float.compare(minRate, mMinRate) != 0;
+        final boolean peakChanged = Float.compare(peakRate, mPeakRate) != 0;
+        mAvoidedWrites += (minChanged ? 0 : 1) + (peakChanged ? 0 : 1);
+        if (!minChanged && !peakChanged) {
+            if (DEBUG) Log.d(TAG, "Already at " + minRate + "-" + peakRate);
+            return;
+        }
+
+        // Order the writes so that min never exceeds peak in between, which
+        // would otherwise make the display flip modes twice
+        if (peakChanged && peakRate < mMinRate) {
+            putMin(minChanged, minRate);
+            putPeak(peakChanged, peakRate);
+        } else {
+            putPeak(peakChanged, peakRate);
+            putMin(minChanged, minRate);
+        }
+        if (DEBUG) Log.d(TAG, "Applied " + minRate + "-" + peakRate);
+    }
+
+    void dump(PrintWriter pw) {
+        pw.println("  applied: min=" + mMinRate + " peak=" + mPeakRate);
+        pw.println("  settings reads: " + mReads);
+        pw.println("  settings writes: " + mWrites);
+        pw.println("  avoided writes: " + mAvoidedWrites);
+        pw.println("  changes: own=" + mOwnChanges + " external=" + mExternalChanges);
+    }
+
+    private void putMin(boolean changed, float rate) {
+        if (changed) {
+            // Held before the write, so its notification is recognized as ours
+            mMinRate = rate;
+            Settings.System.putFloat(mResolver, KEY_MIN_REFRESH_RATE, rate);
+            mWrites++;
+        }
+    }
+
+    private void putPeak(boolean changed, float rate) {
+        if (changed) {
+            mPeakRate = rate;
+            Settings.System.putFloat(mResolver, KEY_PEAK_REFRESH_RATE, rate);
+            mWrites++;
+        }
+    }
+
+    private void refreshIfStale() {
+        if (!mStale) {
+            return;
+        }
+        // Clear first so a change racing with the reads below is not lost
+        mStale = false;
+        mReads++;
+        mPeakRate = Settings.System.getFloat(mResolver, KEY_PEAK_REFRESH_RATE, mDefaultRate);
+        mMinRate = Settings.System.getFloat(mResolver, KEY_MIN_REFRESH_RATE, mDefaultRate);
+    }
+}
@@ -0,0 +1,428 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.settings.refreshrate;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.hardware.display.DisplayManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Display;
+
+import org.lineageos.settings.utils.ForegroundAppTracker;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+/**
+ * Accumulates how long the panel spends at each refresh rate, per foreground
+ * package.
+ *
+ * Time is kept in a fixed-size primitive table: an open-addressed package slot
+ * array and one row of per-rate milliseconds per slot, with a final overflow
+ * row once every slot is taken. Every foreground or display mode change
+ * charges the elapsed time to the previous (package, rate) cell, so collection
+ * does one table update per event and never allocates. Time with the screen
+ * off is not counted. The table is saved to a small binary file every
+ * SAVE_INTERVAL_MS and when tracking stops, from a background thread and from
+ * a copy taken under the lock. Packages that were uninstalled or not seen for
+ * MAX_AGE_MS are dropped on save, so the table does not fill up for good.
+ */
+public final class RefreshResidencyTracker {
+    private static final String TAG = "RefreshResidencyTracker";
+    private static final boolean DEBUG = false;
+
+    private static final String FILE_NAME = "refresh_residency.bin";
+    private static final int FILE_MAGIC = 0x52524553; // "RRES"
+    private static final int FILE_VERSION = 2;
+    private static final long SAVE_INTERVAL_MS = 15 * 60 * 1000;
+    private static final long MAX_AGE_MS = 30L * 24 * 60 * 60 * 1000;
+
+    private static final int MAX_PACKAGES = 256;
+    private static final int OVERFLOW_SLOT = MAX_PACKAGES;
+
+    public static final int RATE_60 = 0;
+    public static final int RATE_90 = 1;
+    public static final int RATE_120 = 2;
+    public static final int RATE_OTHER = 3;
+    public static final int RATE_COUNT = 4;
+
+    private static RefreshResidencyTracker sInstance;
+
+    private final File mFile;
+    private final PackageManager mPackageManager;
+    private final DisplayManager mDisplayManager;
+    private final Display mDisplay;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Handler mSaveHandler;
+
+    // Guarded by this
+    private final String[] mPackages = new String[MAX_PACKAGES];
+    private final long[] mResidencyMs = new long[(MAX_PACKAGES + 1) * RATE_COUNT];
+    // Wall clock time each slot was last in front, so it survives reboots
+    private final long[] mLastSeen = new long[MAX_PACKAGES];
+    private int mSlot = -1;
+    private int mRate = RATE_OTHER;
+    private boolean mScreenOn;
+    private long mSince;
+    private boolean mTracking;
+
+    private final ForegroundAppTracker.Consumer mForegroundConsumer =
+            (component, userId) -> onForegroundAppChanged(component);
+
+    private final DisplayManager.DisplayListener mDisplayListener =
+            new DisplayManager.DisplayListener() {
+        @Override
+        public void onDisplayAdded(int displayId) {
+        }
+
+        @Override
+        public void onDisplayRemoved(int displayId) {
+        }
+
+        @Override
+        public void onDisplayChanged(int displayId) {
+            if (displayId == Display.DEFAULT_DISPLAY) {
+                onDisplayModeChanged();
+            }
+        }
+    };
+
+    private final Runnable mSaveRunnable = new Runnable() {
+        @Override
+        public void run() {
+            save();
+            mSaveHandler.postDelayed(this, SAVE_INTERVAL_MS);
+        }
+    };
+
+    private final Runnable mFinalSaveRunnable = this::save;
+
+    private RefreshResidencyTracker(Context context) {
+        mFile = new File(context.getFilesDir(), FILE_NAME);
+        mPackageManager = context.getPackageManager();
+        final HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mSaveHandler = new Handler(thread.getLooper());
+        mDisplayManager = context.getSystemService(DisplayManager.class);
+        mDisplay = mDisplayManager.getDisplay(Display.DEFAULT_DISPLAY);
+        load();
+    }
+
+    public static synchronized RefreshResidencyTracker getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new RefreshResidencyTracker(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    public void start() {
+        synchronized (this) {
+            if (mTracking) {
+                return;
+            }
+            mTracking = true;
+            mSince = SystemClock.elapsedRealtime();
+        }
+        mDisplayManager.registerDisplayListener(mDisplayListener, mHandler);
+        ForegroundAppTracker.getInstance().addConsumer(mForegroundConsumer);
+        onDisplayModeChanged();
+        mSaveHandler.postDelayed(mSaveRunnable, SAVE_INTERVAL_MS);
+    }
+
+    public void stop() {
+        synchronized (this) {
+            if (!mTracking) {
+                return;
+            }
+            charge();
+            mTracking = false;
+        }
+        ForegroundAppTracker.getInstance().removeConsumer(mForegroundConsumer);
+        mDisplayManager.unregisterDisplayListener(mDisplayListener);
+        mSaveHandler.removeCallbacks(mSaveRunnable);
+        mSaveHandler.post(mFinalSaveRunnable);
+    }
+
+    /**
+     * Copies the time the package spent at each rate, indexed by the RATE_
+     * constants, into out.
+     *
+     * @return the total time in milliseconds, 0 if the package was never seen
+     */
+    public synchronized long getResidency(String packageName, long[] out) {
+        Arrays.fill(out, 0);
+        final int slot = findSlot(packageName, false);
+        if (slot < 0) {
+            return 0;
+        }
+        // Include the stretch that is still running
+        if (mTracking) {
+            charge();
+        }
+        long total = 0;
+        for (int i = 0; i < RATE_COUNT; i++) {
+            out[i] = mResidencyMs[slot * RATE_COUNT + i];
+            total += out[i];
+        }
+        return total;
+    }
+
+    public synchronized void dump(PrintWriter pw) {
+        if (mTracking) {
+            charge();
+        }
+        pw.println("Refresh rate residency (60/90/120/other, ms):");
+        for (int slot = 0; slot <= MAX_PACKAGES; slot++) {
+            final int base = slot * RATE_COUNT;
+            if (slot < MAX_PACKAGES && mPackages[slot] == null) {
+                continue;
+            }
+            pw.println("  " + (slot == OVERFLOW_SLOT ? "<other>" : mPackages[slot]) + ": "
+                    + mResidencyMs[base + RATE_60] + "/" + mResidencyMs[base + RATE_90] + "/"
+                    + mResidencyMs[base + RATE_120] + "/" + mResidencyMs[base + RATE_OTHER]);
+        }
+    }
+
+    private synchronized void onForegroundAppChanged(ComponentName component) {
+        charge();
+        mSlot = findSlot(component.getPackageName(), true);
+        if (mSlot != OVERFLOW_SLOT) {
+            mLastSeen[mSlot] = System.currentTimeMillis();
+        }
+    }
+
+    private synchronized void onDisplayModeChanged() {
+        charge();
+        mScreenOn = mDisplay.getState() == Display.STATE_ON;
+        mRate = rateIndex(mDisplay.getRefreshRate());
+        if (DEBUG) Log.d(TAG, "Display: on=" + mScreenOn + " rate=" + mRate);
+    }
+
+    /**
+     * Books the time since the last event on the current (package, rate) cell.
+     */
+    private void charge() {
+        final long now = SystemClock.elapsedRealtime();
+        if (mScreenOn && mSlot >= 0) {
+            mResidencyMs[mSlot * RATE_COUNT + mRate] += now - mSince;
+        }
+        mSince = now;
+    }
+
+    /**
+     * Finds the slot of a package by linear probing from its hash.
+     *
+     * @param create whether to claim a free slot for an unknown package
+     * @return the slot, OVERFLOW_SLOT if the table is full, or -1 if unknown
+     *         and create is false
+     */
+    private int findSlot(String packageName, boolean create) {
+        final int start = (packageName.hashCode() & 0x7fffffff) % MAX_PACKAGES;
+        for (int i = 0; i < MAX_PACKAGES; i++) {
+            final int slot = (start + i) % MAX_PACKAGES;
+            final String existing = mPackages[slot];
+            if (existing == null) {
+                if (!create) {
+                    return -1;
+                }
+                mPackages[slot] = packageName;
+                return slot;
+            }
+            if (existing.equals(packageName)) {
+                return slot;
+            }
+        }
+        return create ? OVERFLOW_SLOT : -1;
+    }
+
+    private static int rateIndex(float rate) {
+        switch (Math.round(rate)) {
+            case 60:
+                return RATE_60;
+            case 90:
+                return RATE_90;
+            case 120:
+                return RATE_120;
+            default:
+                return RATE_OTHER;
+        }
+    }
+
+    private synchronized void load() {
+        if (!mFile.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(mFile)))) {
+            final int version = in.readInt() == FILE_MAGIC ? in.readInt() : -1;
+            if (version != 1 && version != FILE_VERSION) {
+                Log.w(TAG, "Ignoring residency file in unknown format");
+                return;
+            }
+            final long now = System.currentTimeMillis();
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                final String packageName = in.readUTF();
+                // Version 1 did not keep track of when a package was last seen
+                final long lastSeen = version == 1 ? now : in.readLong();
+                final int slot = packageName.isEmpty()
+                        ? OVERFLOW_SLOT : findSlot(packageName, true);
+                if (slot != OVERFLOW_SLOT) {
+                    mLastSeen[slot] = Math.max(mLastSeen[slot], lastSeen);
+                }
+                for (int rate = 0; rate < RATE_COUNT; rate++) {
+                    mResidencyMs[slot * RATE_COUNT + rate] += in.readLong();
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to load residency", e);
+        }
+    }
+
+    /**
+     * Drops stale packages and writes the table. Runs on the save thread; the
+     * lock is only held to evict and to copy the table, not for the file I/O.
+     */
+    private void save() {
+        final String[] packages;
+        synchronized (this) {
+            packages = mPackages.clone();
+        }
+        // Ask the package manager without holding up the collection
+        final boolean[] uninstalled = new boolean[MAX_PACKAGES];
+        for (int slot = 0; slot < MAX_PACKAGES; slot++) {
+            if (packages[slot] != null && !isInstalled(packages[slot])) {
+                uninstalled[slot] = true;
+            }
+        }
+
+        final long[] residencyMs;
+        final long[] lastSeen;
+        synchronized (this) {
+            if (mTracking) {
+                charge();
+            }
+            evict(packages, uninstalled);
+            System.arraycopy(mPackages, 0, packages, 0, MAX_PACKAGES);
+            residencyMs = mResidencyMs.clone();
+            lastSeen = mLastSeen.clone();
+        }
+
+        final File tmp = new File(mFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            int count = 0;
+            for (int slot = 0; slot <= MAX_PACKAGES; slot++) {
+                if (slot == OVERFLOW_SLOT || packages[slot] != null) {
+                    count++;
+                }
+            }
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            out.writeInt(count);
+            for (int slot = 0; slot <= MAX_PACKAGES; slot++) {
+                if (slot != OVERFLOW_SLOT && packages[slot] == null) {
+                    continue;
+                }
+                // The overflow row is stored under an empty name
+                out.writeUTF(slot == OVERFLOW_SLOT ? "" : packages[slot]);
+                out.writeLong(slot == OVERFLOW_SLOT ? 0 : lastSeen[slot]);
+                for (int rate = 0; rate < RATE_COUNT; rate++) {
+                    out.writeLong(residencyMs[slot * RATE_COUNT + rate]);
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to save residency", e);
+            return;
+        }
+        if (!tmp.renameTo(mFile)) {
+            Log.e(TAG, "Failed to replace " + mFile);
+        }
+    }
+
+    /**
+     * Removes the packages flagged as uninstalled, as found in the given copy
+     * of the slots, and those not seen for MAX_AGE_MS, then rehashes the rest
+     * since linear probing cannot leave holes behind. Called with the lock held.
+     */
+    private void evict(String[] packages, boolean[] uninstalled) {
+        final long now = System.currentTimeMillis();
+        final String current = mSlot >= 0 && mSlot != OVERFLOW_SLOT ? mPackages[mSlot] : null;
+        if (current != null) {
+            mLastSeen[mSlot] = now;
+        }
+        boolean evicted = false;
+        for (int slot = 0; slot < MAX_PACKAGES; slot++) {
+            final String packageName = mPackages[slot];
+            if (packageName == null || packageName.equals(current)) {
+                continue;
+            }
+            // The slot may have been claimed by another package meanwhile
+            if ((uninstalled[slot] && packageName.equals(packages[slot]))
+                    || now - mLastSeen[slot] > MAX_AGE_MS) {
+                if (DEBUG) Log.d(TAG, "Evicting " + packageName);
+                mPackages[slot] = null;
+                evicted = true;
+            }
+        }
+        if (!evicted) {
+            return;
+        }
+
+        final String[] oldPackages = mPackages.clone();
+        final long[] oldResidencyMs = mResidencyMs.clone();
+        final long[] oldLastSeen = mLastSeen.clone();
+        Arrays.fill(mPackages, null);
+        Arrays.fill(mResidencyMs, 0, MAX_PACKAGES * RATE_COUNT, 0);
+        Arrays.fill(mLastSeen, 0);
+        for (int oldSlot = 0; oldSlot < MAX_PACKAGES; oldSlot++) {
+            if (oldPackages[oldSlot] == null) {
+                continue;
+            }
+            final int slot = findSlot(oldPackages[oldSlot], true);
+            System.arraycopy(oldResidencyMs, oldSlot * RATE_COUNT,
+                    mResidencyMs, slot * RATE_COUNT, RATE_COUNT);
+            mLastSeen[slot] = oldLastSeen[oldSlot];
+        }
+        if (current != null) {
+            mSlot = findSlot(current, true);
+        }
+    }
+
+    private boolean isInstalled(String packageName) {
+        try {
+            mPackageManager.getPackageInfo(packageName, 0);
+            return true;
+        } catch (PackageManager.NameNotFoundException e) {
+            return false;
+        }
+    }
+}
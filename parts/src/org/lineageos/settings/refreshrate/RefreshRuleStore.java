@@ -0,0 +1,323 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.settings.refreshrate;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import androidx.preference.PreferenceManager;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Process-wide store of the per-package and per-activity refresh rate rules.
+ *
+ * Rules live in an immutable HashMap snapshot, keyed by package, that is
+ * swapped on every update, so lookups from the service and the settings list
+ * are O(1), lock-free and allocation-free. An activity rule overrides the rule
+ * of its package; Mode.DEFAULT on an activity means "same as the package".
+ *
+ * The rules are persisted as one preference string: a version line followed by
+ * one "package mode" or "package/activity mode" line per rule. The legacy
+ * "refresh.standard=pkg,...:refresh.extreme=pkg,..." string is migrated on
+ * first load.
+ *
+ * It also holds the idle down-ramp settings: the global switch, off by
+ * default, and the packages that keep their rate while the screen is not
+ * touched.
+ */
+public final class RefreshRuleStore {
+    private static final String TAG = "RefreshRuleStore";
+    private static final boolean DEBUG = false;
+
+    private static final String KEY_RULES = "refresh_rules";
+    private static final int VERSION = 1;
+
+    private static final String KEY_LEGACY = "refresh_control";
+    private static final String LEGACY_STANDARD = "refresh.standard=";
+    private static final String LEGACY_EXTREME = "refresh.extreme=";
+
+    private static final String KEY_IDLE_ENABLED = "refresh_idle_enabled";
+    private static final String KEY_IDLE_EXEMPT = "refresh_idle_exempt";
+
+    public enum Mode {
+        DEFAULT(RefreshUtils.STATE_DEFAULT),
+        STANDARD(RefreshUtils.STATE_STANDARD),
+        EXTREME(RefreshUtils.STATE_EXTREME);
+
+        public final int state;
+
+        Mode(int state) {
+            this.state = state;
+        }
+
+        public static Mode fromState(int state) {
+            for (Mode mode : values()) {
+                if (mode.state == state) {
+                    return mode;
+                }
+            }
+            return DEFAULT;
+        }
+    }
+
+    private static final class PackageRule {
+        final Mode mode;
+        // Activity class name -> mode, never holds Mode.DEFAULT
+        final Map<String, Mode> activities;
+
+        PackageRule(Mode mode, Map<String, Mode> activities) {
+            this.mode = mode;
+            this.activities = activities;
+        }
+
+        boolean isEmpty() {
+            return mode == Mode.DEFAULT && activities.isEmpty();
+        }
+    }
+
+    private static final PackageRule EMPTY_RULE =
+            new PackageRule(Mode.DEFAULT, Collections.emptyMap());
+
+    private static RefreshRuleStore sInstance;
+
+    private final SharedPreferences mSharedPrefs;
+
+    // Never mutated once published
+    private volatile Map<String, PackageRule> mRules;
+    private volatile Set<String> mIdleExempt;
+
+    private RefreshRuleStore(Context context) {
+        mSharedPrefs = PreferenceManager.getDefaultSharedPreferences(context);
+        mRules = load();
+        mIdleExempt = new HashSet<>(
+                mSharedPrefs.getStringSet(KEY_IDLE_EXEMPT, Collections.emptySet()));
+    }
+
+    public static synchronized RefreshRuleStore getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new RefreshRuleStore(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * @return the rule set on the package itself, ignoring its activities
+     */
+    public Mode getMode(String packageName) {
+        return getRule(packageName).mode;
+    }
+
+    /**
+     * @return the rule set on this exact activity, or Mode.DEFAULT if it follows
+     *         its package
+     */
+    public Mode getActivityMode(ComponentName component) {
+        final Mode mode = getRule(component.getPackageName()).activities.get(
+                component.getClassName());
+        return mode != null ? mode : Mode.DEFAULT;
+    }
+
+    /**
+     * @return the rule in effect for the activity: its own, else its package's
+     */
+    public Mode resolveMode(ComponentName component) {
+        final PackageRule rule = getRule(component.getPackageName());
+        final Mode mode = rule.activities.get(component.getClassName());
+        return mode != null ? mode : rule.mode;
+    }
+
+    public synchronized void setMode(String packageName, Mode mode) {
+        final PackageRule rule = getRule(packageName);
+        if (rule.mode != mode) {
+            update(packageName, new PackageRule(mode, rule.activities));
+        }
+    }
+
+    public synchronized void setActivityMode(ComponentName component, Mode mode) {
+        final String packageName = component.getPackageName();
+        final PackageRule rule = getRule(packageName);
+        if (getActivityMode(component) == mode) {
+            return;
+        }
+        final Map<String, Mode> activities = new HashMap<>(rule.activities);
+        if (mode == Mode.DEFAULT) {
+            activities.remove(component.getClassName());
+        } else {
+            activities.put(component.getClassName(), mode);
+        }
+        update(packageName, new PackageRule(rule.mode, activities));
+    }
+
+    /**
+     * @return whether the peak rate drops once the screen was not touched for a while
+     */
+    public boolean isIdleDownRampEnabled() {
+        return mSharedPrefs.getBoolean(KEY_IDLE_ENABLED, false);
+    }
+
+    public void setIdleDownRampEnabled(boolean enabled) {
+        mSharedPrefs.edit().putBoolean(KEY_IDLE_ENABLED, enabled).apply();
+    }
+
+    /**
+     * @return whether the package keeps its rate while the screen is not touched
+     */
+    public boolean isIdleExempt(String packageName) {
+        return mIdleExempt.contains(packageName);
+    }
+
+    public synchronized void setIdleExempt(String packageName, boolean exempt) {
+        if (mIdleExempt.contains(packageName) == exempt) {
+            return;
+        }
+        final Set<String> packages = new HashSet<>(mIdleExempt);
+        if (exempt) {
+            packages.add(packageName);
+        } else {
+            packages.remove(packageName);
+        }
+        mIdleExempt = packages;
+        mSharedPrefs.edit().putStringSet(KEY_IDLE_EXEMPT, packages).apply();
+    }
+
+    private PackageRule getRule(String packageName) {
+        final PackageRule rule = mRules.get(packageName);
+        return rule != null ? rule : EMPTY_RULE;
+    }
+
+    private void update(String packageName, PackageRule rule) {
+        final Map<String, PackageRule> rules = new HashMap<>(mRules);
+        if (rule.isEmpty()) {
+            rules.remove(packageName);
+        } else {
+            rules.put(packageName, rule);
+        }
+        mRules = rules;
+        mSharedPrefs.edit().putString(KEY_RULES, serialize(rules)).apply();
+    }
+
+    private Map<String, PackageRule> load() {
+        final String value = mSharedPrefs.getString(KEY_RULES, null);
+        if (value != null) {
+            return parse(value);
+        }
+
+        final Map<String, PackageRule> rules = new HashMap<>();
+        final String legacy = mSharedPrefs.getString(KEY_LEGACY, null);
+        if (legacy != null) {
+            migrateLegacy(legacy, rules);
+            if (DEBUG) Log.d(TAG, "Migrated " + rules.size() + " legacy rules");
+        }
+        mSharedPrefs.edit()
+                .putString(KEY_RULES, serialize(rules))
+                .remove(KEY_LEGACY)
+                .apply();
+        return rules;
+    }
+
+    private static Map<String, PackageRule> parse(String value) {
+        final Map<String, PackageRule> rules = new HashMap<>();
+        final String[] lines = value.split("\n");
+        if (!Integer.toString(VERSION).equals(lines[0])) {
+            Log.w(TAG, "Unknown rule format " + lines[0] + ", ignoring stored rules");
+            return rules;
+        }
+        for (int i = 1; i < lines.length; i++) {
+            final int sep = lines[i].lastIndexOf(' ');
+            if (sep <= 0) {
+                continue;
+            }
+            try {
+                final Mode mode = Mode.fromState(Integer.parseInt(lines[i].substring(sep + 1)));
+                final String key = lines[i].substring(0, sep);
+                final int slash = key.indexOf('/');
+                if (slash < 0) {
+                    put(rules, key, null, mode);
+                } else {
+                    put(rules, key.substring(0, slash), key.substring(slash + 1), mode);
+                }
+            } catch (NumberFormatException e) {
+                Log.w(TAG, "Skipping malformed rule " + lines[i]);
+            }
+        }
+        return rules;
+    }
+
+    /**
+     * Adds a rule while loading; rules are still mutable at this point.
+     */
+    private static void put(Map<String, PackageRule> rules, String packageName,
+            String activity, Mode mode) {
+        if (mode == Mode.DEFAULT) {
+            return;
+        }
+        PackageRule rule = rules.get(packageName);
+        if (rule == null) {
+            rule = new PackageRule(Mode.DEFAULT, new HashMap<>());
+        }
+        if (activity == null) {
+            rule = new PackageRule(mode, rule.activities);
+        } else {
+            rule.activities.put(activity, mode);
+        }
+        rules.put(packageName, rule);
+    }
+
+    private static String serialize(Map<String, PackageRule> rules) {
+        final StringBuilder builder = new StringBuilder().append(VERSION);
+        for (Map.Entry<String, PackageRule> entry : rules.entrySet()) {
+            final PackageRule rule = entry.getValue();
+            if (rule.mode != Mode.DEFAULT) {
+                builder.append('\n').append(entry.getKey()).append(' ').append(rule.mode.state);
+            }
+            for (Map.Entry<String, Mode> activity : rule.activities.entrySet()) {
+                builder.append('\n').append(entry.getKey()).append('/').append(activity.getKey())
+                        .append(' ').append(activity.getValue().state);
+            }
+        }
+        return builder.toString();
+    }
+
+    private static void migrateLegacy(String legacy, Map<String, PackageRule> rules) {
+        for (String modes : legacy.split(":")) {
+            final Mode mode;
+            final String packages;
+            if (modes.startsWith(LEGACY_STANDARD)) {
+                mode = Mode.STANDARD;
+                packages = modes.substring(LEGACY_STANDARD.length());
+            } else if (modes.startsWith(LEGACY_EXTREME)) {
+                mode = Mode.EXTREME;
+                packages = modes.substring(LEGACY_EXTREME.length());
+            } else {
+                continue;
+            }
+            for (String packageName : packages.split(",")) {
+                // The old lookup matched standard first, keep that precedence
+                if (!packageName.isEmpty() && !rules.containsKey(packageName)) {
+                    put(rules, packageName, null, mode);
+                }
+            }
+        }
+    }
+}
@@ -16,87 +16,212 @@
 
 package org.lineageos.settings.refreshrate;
 
-import android.app.ActivityManager;
-import android.app.ActivityTaskManager;
-import android.app.ActivityTaskManager.RootTaskInfo;
-import android.app.IActivityTaskManager;
-import android.app.TaskStackListener;
 import android.app.Service;
 import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.os.Handler;
 import android.os.IBinder;
+import android.os.SystemProperties;
 import android.util.Log;
-import android.os.RemoteException;
+
+import org.lineageos.settings.appprofile.AppProfileStore;
+import org.lineageos.settings.utils.ForegroundAppTracker;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 
 public class RefreshService extends Service {
 
     private static final String TAG = "RefreshService";
     private static final boolean DEBUG = true;
 
-    private String mPreviousApp;
+    // Peak rate while the foreground app plays media, 0 disables capping
+    private static final String PROP_MEDIA_CAP = "persist.sys.parts.refresh.media_cap";
+    private static final int DEFAULT_MEDIA_CAP = 60;
+
+    // Peak rate once the screen was not touched for the timeout, while the
+    // down-ramp is switched on in the settings. A 0 timeout disables it anyway.
+    private static final String PROP_IDLE_TIMEOUT = "persist.sys.parts.refresh.idle_ms";
+    private static final int DEFAULT_IDLE_TIMEOUT = 4000;
+    private static final String PROP_IDLE_RATE = "persist.sys.parts.refresh.idle_rate";
+    private static final int DEFAULT_IDLE_RATE = 60;
+
+    // Only touched on the tracker thread
+    private ComponentName mPreviousComponent;
+    private long mEvaluations;
+    private long mRateChanges;
+    private String mMediaPackage;
+    private boolean mTouchIdle;
     private RefreshUtils mRefreshUtils;
-    private IActivityTaskManager mActivityTaskManager;
+    private ForegroundAppTracker mTracker;
+    private MediaPlaybackMonitor mMediaMonitor;
+    private TouchIdleController mTouchIdleController;
+    private RefreshResidencyTracker mResidency;
 
     private BroadcastReceiver mIntentReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
-            mPreviousApp = "";
+            if (mTouchIdleController != null) {
+                if (Intent.ACTION_SCREEN_ON.equals(intent.getAction())) {
+                    mTouchIdleController.start();
+                } else {
+                    mTouchIdleController.stop();
+                }
+            }
+            mTracker.getExecutor().execute(() -> {
+                mPreviousComponent = null;
+                onForegroundAppChanged(mTracker.getCurrentComponent());
+            });
         }
     };
 
+    private final ForegroundAppTracker.Consumer mForegroundConsumer =
+            (component, userId) -> onForegroundAppChanged(component);
+
+    private final MediaPlaybackMonitor.Listener mMediaListener =
+            packageName -> mTracker.getExecutor().execute(() -> {
+                if (DEBUG) Log.d(TAG, "Media playback: " + packageName);
+                mMediaPackage = packageName;
+                mPreviousComponent = null;
+                onForegroundAppChanged(mTracker.getCurrentComponent());
+            });
+
+    private final AppProfileStore.Listener mProfileListener =
+            packageName -> mTracker.getExecutor().execute(() -> {
+                final ComponentName component = mTracker.getCurrentComponent();
+                if (component != null && component.getPackageName().equals(packageName)) {
+                    mPreviousComponent = null;
+                    onForegroundAppChanged(component);
+                }
+            });
+
+    private final TouchIdleController.Listener mTouchIdleListener =
+            idle -> mTracker.getExecutor().execute(() -> {
+                mTouchIdle = idle;
+                mPreviousComponent = null;
+                onForegroundAppChanged(mTracker.getCurrentComponent());
+            });
+
     @Override
     public void onCreate() {
         if (DEBUG) Log.d(TAG, "Creating service");
-        try {
-            mActivityTaskManager = ActivityTaskManager.getService();
-            mActivityTaskManager.registerTaskStackListener(mTaskListener);
-        } catch (RemoteException e) {
-            // Do nothing
-        }
         mRefreshUtils = new RefreshUtils(this);
+        mTracker = ForegroundAppTracker.getInstance();
+        mRefreshUtils.startObservingRates();
         registerReceiver();
+        mTracker.addConsumer(mForegroundConsumer);
+        AppProfileStore.getInstance(this).addListener(mProfileListener);
+        mResidency = RefreshResidencyTracker.getInstance(this);
+        mResidency.start();
+        if (SystemProperties.getInt(PROP_MEDIA_CAP, DEFAULT_MEDIA_CAP) > 0) {
+            mMediaMonitor = new MediaPlaybackMonitor(this, mMediaListener);
+            mMediaMonitor.start();
+        }
+        updateTouchIdle();
         super.onCreate();
     }
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         if (DEBUG) Log.d(TAG, "Starting service");
+        // The settings restart us after switching the idle down-ramp
+        updateTouchIdle();
         return START_STICKY;
     }
 
+    @Override
+    public void onDestroy() {
+        if (DEBUG) Log.d(TAG, "Destroying service");
+        mTracker.removeConsumer(mForegroundConsumer);
+        AppProfileStore.getInstance(this).removeListener(mProfileListener);
+        mResidency.stop();
+        if (mMediaMonitor != null) {
+            mMediaMonitor.stop();
+        }
+        if (mTouchIdleController != null) {
+            mTouchIdleController.quit();
+        }
+        unregisterReceiver(mIntentReceiver);
+        mRefreshUtils.stopObservingRates();
+        super.onDestroy();
+    }
+
     @Override
     public IBinder onBind(Intent intent) {
         return null;
     }
 
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        mTracker.dump(pw);
+        pw.println("Refresh rate:");
+        // Unsynchronized snapshot of tracker thread state, good enough for dumpsys
+        pw.println("  evaluations: " + mEvaluations);
+        pw.println("  rate changes: " + mRateChanges);
+        pw.println("  media playing: " + mMediaPackage);
+        final TouchIdleController touchIdleController = mTouchIdleController;
+        if (touchIdleController != null) {
+            touchIdleController.dump(pw);
+        } else {
+            pw.println("  touch idle: off");
+        }
+        mResidency.dump(pw);
+        mRefreshUtils.dump(pw);
+    }
+
+    /**
+     * Starts or stops watching touches to follow the idle down-ramp switch.
+     * Stopping reports non-idle, which lifts the idle cap again.
+     */
+    private void updateTouchIdle() {
+        final int idleTimeout = SystemProperties.getInt(PROP_IDLE_TIMEOUT, DEFAULT_IDLE_TIMEOUT);
+        final boolean enabled = idleTimeout > 0 && mRefreshUtils.isIdleDownRampEnabled();
+        if (enabled && mTouchIdleController == null) {
+            mTouchIdleController = new TouchIdleController(idleTimeout, mTouchIdleListener);
+            mTouchIdleController.start();
+        } else if (!enabled && mTouchIdleController != null) {
+            mTouchIdleController.quit();
+            mTouchIdleController = null;
+        }
+    }
+
     private void registerReceiver() {
         IntentFilter filter = new IntentFilter();
         filter.addAction(Intent.ACTION_SCREEN_OFF);
-        filter.addAction(Intent.ACTION_SCREEN_ON);        
+        filter.addAction(Intent.ACTION_SCREEN_ON);
         this.registerReceiver(mIntentReceiver, filter);
     }
 
-     private final TaskStackListener mTaskListener = new TaskStackListener() {
-        @Override
-        public void onTaskStackChanged() {
-            try {
-                final RootTaskInfo info = mActivityTaskManager.getFocusedRootTaskInfo();
-                if (info == null || info.topActivity == null) {
-                    return;
-                }
-                String foregroundApp = info.topActivity.getPackageName();
-                if (!mRefreshUtils.isAppInList) {
-                 mRefreshUtils.getOldRate();
-                  } 
-                if (!foregroundApp.equals(mPreviousApp)) {
-                    mRefreshUtils.setRefreshRate(foregroundApp);
-                    mPreviousApp = foregroundApp;
-                  }
- 		 } catch (Exception e) {}
-            }
-        };
-    }
\ No newline at end of file
+    /**
+     * @return the lowest peak rate any active cap asks for, or 0 for none
+     */
+    private float getPeakCap(ComponentName component) {
+        int cap = Integer.MAX_VALUE;
+        // Only cap when the app playing media is the one on screen
+        if (component.getPackageName().equals(mMediaPackage)) {
+            cap = SystemProperties.getInt(PROP_MEDIA_CAP, DEFAULT_MEDIA_CAP);
+        }
+        if (mTouchIdle && !mRefreshUtils.isIdleExempt(component)) {
+            cap = Math.min(cap, SystemProperties.getInt(PROP_IDLE_RATE, DEFAULT_IDLE_RATE));
+        }
+        return cap == Integer.MAX_VALUE ? 0 : cap;
+    }
+
+    private void onForegroundAppChanged(ComponentName component) {
+        if (component == null) {
+            return;
+        }
+        mEvaluations++;
+        if (!mRefreshUtils.isAppInList) {
+            mRefreshUtils.getOldRate();
+        }
+        // Activity rules may differ within one package, so compare components
+        if (!component.equals(mPreviousComponent)) {
+            mRateChanges++;
+            mRefreshUtils.setRefreshRate(component, getPeakCap(component));
+            mPreviousComponent = component;
+        }
+    }
+}
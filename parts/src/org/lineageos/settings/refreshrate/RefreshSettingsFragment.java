@@ -16,9 +16,13 @@
 package org.lineageos.settings.refreshrate;
 
 import android.annotation.Nullable;
+import android.app.AlertDialog;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
+import android.content.pm.ActivityInfo;
 import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 import android.os.Bundle;
@@ -28,8 +32,11 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.AdapterView;
+import android.widget.ArrayAdapter;
 import android.widget.BaseAdapter;
+import android.widget.CheckBox;
 import android.widget.ImageView;
+import android.widget.LinearLayout;
 import android.widget.ListView;
 import android.widget.SectionIndexer;
 import android.widget.Spinner;
@@ -43,12 +50,18 @@ import androidx.recyclerview.widget.LinearLayoutManager;
 import com.android.settingslib.applications.ApplicationsState;
 
 import org.lineageos.settings.R;
+import org.lineageos.settings.appprofile.AppProfile;
+import org.lineageos.settings.appprofile.AppProfileStore;
+import org.lineageos.settings.power.PowerProfile;
+import org.lineageos.settings.refreshrate.RefreshRuleStore.Mode;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class RefreshSettingsFragment extends PreferenceFragment
     implements ApplicationsState.Callbacks {
@@ -61,6 +74,8 @@ public class RefreshSettingsFragment extends PreferenceFragment
             new HashMap<String, ApplicationsState.AppEntry>();
 
     private RefreshUtils mRefreshUtils;
+    private RefreshResidencyTracker mResidency;
+    private final long[] mResidencyMs = new long[RefreshResidencyTracker.RATE_COUNT];
     private RecyclerView mAppsRecyclerView;
 
     @Override
@@ -79,6 +94,7 @@ public class RefreshSettingsFragment extends PreferenceFragment
         mAllPackagesAdapter = new AllPackagesAdapter(getActivity());
 
         mRefreshUtils = new RefreshUtils(getActivity());
+        mResidency = RefreshResidencyTracker.getInstance(getActivity());
     }
 
     @Override
@@ -204,8 +220,81 @@ public class RefreshSettingsFragment extends PreferenceFragment
         }
     }
 
+    private static final Mode[] PROFILE_REFRESH = { null, Mode.DEFAULT, Mode.STANDARD, Mode.EXTREME };
+    private static final Boolean[] PROFILE_TOUCH = { null, true, false };
+    private static final PowerProfile[] PROFILE_POWER = {
+            null, PowerProfile.DEFAULT, PowerProfile.BATTERY, PowerProfile.PERFORMANCE };
+
+    /**
+     * Lets the user bundle a refresh tier, touch sampling and a power profile
+     * that are applied together while the app is in front, and opt the app out
+     * of the idle down-ramp.
+     */
+    private void showProfileDialog(ApplicationsState.AppEntry entry) {
+        final Context context = getActivity();
+        final AppProfileStore store = AppProfileStore.getInstance(context);
+        final AppProfile current = store.get(entry.info.packageName);
+
+        final LinearLayout layout = new LinearLayout(context);
+        layout.setOrientation(LinearLayout.VERTICAL);
+        final int padding = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 24,
+                getResources().getDisplayMetrics());
+        layout.setPadding(padding, padding / 2, padding, 0);
+
+        final Spinner refresh = addProfileSpinner(layout, R.string.app_profile_refresh,
+                R.string.refresh_default, R.string.refresh_standard, R.string.refresh_extreme);
+        refresh.setSelection(Arrays.asList(PROFILE_REFRESH).indexOf(
+                current != null ? current.refreshMode : null));
+        final Spinner touch = addProfileSpinner(layout, R.string.app_profile_touch,
+                R.string.app_profile_on, R.string.app_profile_off);
+        touch.setSelection(Arrays.asList(PROFILE_TOUCH).indexOf(
+                current != null ? current.touchSampling : null));
+        final Spinner power = addProfileSpinner(layout, R.string.app_profile_power,
+                R.string.powerprofile_default, R.string.powerprofile_battery,
+                R.string.powerprofile_performance);
+        power.setSelection(Arrays.asList(PROFILE_POWER).indexOf(
+                current != null ? current.powerProfile : null));
+        final RefreshRuleStore rules = RefreshRuleStore.getInstance(context);
+        final CheckBox idleExempt = new CheckBox(context);
+        idleExempt.setText(R.string.refresh_idle_exempt);
+        idleExempt.setChecked(rules.isIdleExempt(entry.info.packageName));
+        layout.addView(idleExempt);
+
+        new AlertDialog.Builder(context)
+                .setTitle(getString(R.string.app_profile_title, entry.label))
+                .setView(layout)
+                .setPositiveButton(android.R.string.ok, (dialog, which) -> {
+                    store.set(entry.info.packageName, new AppProfile(
+                            PROFILE_REFRESH[refresh.getSelectedItemPosition()],
+                            PROFILE_TOUCH[touch.getSelectedItemPosition()],
+                            PROFILE_POWER[power.getSelectedItemPosition()]));
+                    rules.setIdleExempt(entry.info.packageName, idleExempt.isChecked());
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    private Spinner addProfileSpinner(LinearLayout layout, int titleResId, int... itemResIds) {
+        final Context context = layout.getContext();
+        final TextView title = new TextView(context);
+        title.setText(titleResId);
+        layout.addView(title);
+
+        final String[] items = new String[itemResIds.length + 1];
+        items[0] = getString(R.string.app_profile_unchanged);
+        for (int i = 0; i < itemResIds.length; i++) {
+            items[i + 1] = getString(itemResIds[i]);
+        }
+        final Spinner spinner = new Spinner(context);
+        spinner.setAdapter(new ArrayAdapter<>(context,
+                android.R.layout.simple_spinner_dropdown_item, items));
+        layout.addView(spinner);
+        return spinner;
+    }
+
     private class ViewHolder extends RecyclerView.ViewHolder {
         private TextView title;
+        private TextView residency;
         private Spinner mode;
         private ImageView icon;
         private View rootView;
@@ -214,6 +303,7 @@ public class RefreshSettingsFragment extends PreferenceFragment
         private ViewHolder(View view) {
             super(view);
             this.title = view.findViewById(R.id.app_name);
+            this.residency = view.findViewById(R.id.app_residency);
             this.mode = view.findViewById(R.id.app_mode);
             this.icon = view.findViewById(R.id.app_icon);
             this.stateIcon = view.findViewById(R.id.state);
@@ -223,17 +313,34 @@ public class RefreshSettingsFragment extends PreferenceFragment
         }
     }
 
+    /**
+     * A list row: either an app, or one of the activities of an expanded app.
+     */
+    private static class Row {
+        private final ApplicationsState.AppEntry entry;
+        private final int entryIndex;
+        private final ComponentName activity;
+
+        private Row(ApplicationsState.AppEntry entry, int entryIndex, ComponentName activity) {
+            this.entry = entry;
+            this.entryIndex = entryIndex;
+            this.activity = activity;
+        }
+    }
+
      private class ModeAdapter extends BaseAdapter {
 
         private final LayoutInflater inflater;
-        private final int[] items = {
-                R.string.refresh_default,
-                R.string.refresh_standard,
-                R.string.refresh_extreme
-        };
+        private final int[] items;
 
-        private ModeAdapter(Context context) {
+        private ModeAdapter(Context context, boolean activity) {
             inflater = LayoutInflater.from(context);
+            // For activities the default entry means "follow the app rule"
+            items = new int[] {
+                    activity ? R.string.refresh_same_as_app : R.string.refresh_default,
+                    R.string.refresh_standard,
+                    R.string.refresh_extreme
+            };
         }
 
         @Override
@@ -272,6 +379,10 @@ public class RefreshSettingsFragment extends PreferenceFragment
             implements AdapterView.OnItemSelectedListener, SectionIndexer {
 
         private List<ApplicationsState.AppEntry> mEntries = new ArrayList<>();
+        private final List<Row> mRows = new ArrayList<>();
+        private int[] mRowForEntry = new int[0];
+        private final Set<String> mExpanded = new HashSet<>();
+        private final Map<String, List<ComponentName>> mActivities = new HashMap<>();
         private String[] mSections;
         private int[] mPositions;
 
@@ -281,12 +392,13 @@ public class RefreshSettingsFragment extends PreferenceFragment
 
         @Override
         public int getItemCount() {
-            return mEntries.size();
+            return mRows.size();
         }
 
         @Override
         public long getItemId(int position) {
-            return mEntries.get(position).id;
+            final Row row = mRows.get(position);
+            return row.activity == null ? row.entry.id : row.activity.hashCode();
         }
 @NonNull
         @Override
@@ -299,26 +411,109 @@ public class RefreshSettingsFragment extends PreferenceFragment
         public void onBindViewHolder(ViewHolder holder, int position) {
             Context context = holder.itemView.getContext();
 
-            ApplicationsState.AppEntry entry = mEntries.get(position);
+            Row row = mRows.get(position);
+            ApplicationsState.AppEntry entry = row.entry;
 
             if (entry == null) {
                 return;
             }
-            holder.mode.setAdapter(new ModeAdapter(context));
+            holder.mode.setAdapter(new ModeAdapter(context, row.activity != null));
             holder.mode.setOnItemSelectedListener(this);
-            holder.title.setText(entry.label);
             holder.title.setOnClickListener(v -> holder.mode.performClick());
-            mApplicationsState.ensureIcon(entry);
-            holder.icon.setImageDrawable(entry.icon);
+            holder.mode.setTag(row);
             int packageState = mRefreshUtils.getStateForPackage(entry.info.packageName);
-            holder.mode.setSelection(packageState, false);
-            holder.mode.setTag(entry);
-            holder.stateIcon.setImageResource(getStateDrawable(packageState));
+
+            if (row.activity == null) {
+                holder.title.setText(entry.label);
+                mApplicationsState.ensureIcon(entry);
+                holder.icon.setImageDrawable(entry.icon);
+                holder.icon.setContentDescription(
+                        getString(R.string.refresh_show_activities, entry.label));
+                holder.icon.setOnClickListener(v -> toggleExpanded(entry.info.packageName));
+                holder.rootView.setOnLongClickListener(v -> {
+                    showProfileDialog(entry);
+                    return true;
+                });
+                holder.mode.setSelection(packageState, false);
+                holder.stateIcon.setImageResource(getStateDrawable(packageState));
+                bindResidency(holder.residency, entry.info.packageName);
+            } else {
+                holder.residency.setVisibility(View.GONE);
+                // No icon, so the activity rows read as nested under their app
+                holder.title.setText(row.activity.getShortClassName());
+                holder.icon.setImageDrawable(null);
+                holder.icon.setContentDescription(null);
+                holder.icon.setOnClickListener(null);
+                holder.rootView.setOnLongClickListener(null);
+                int activityState = mRefreshUtils.getStateForActivity(row.activity);
+                holder.mode.setSelection(activityState, false);
+                holder.stateIcon.setImageResource(getStateDrawable(
+                        activityState != RefreshUtils.STATE_DEFAULT ? activityState : packageState));
+            }
+        }
+
+        private void bindResidency(TextView view, String packageName) {
+            final long total = mResidency.getResidency(packageName, mResidencyMs);
+            if (total <= 0) {
+                view.setVisibility(View.GONE);
+                return;
+            }
+            view.setText(getString(R.string.refresh_residency,
+                    mResidencyMs[RefreshResidencyTracker.RATE_60] * 100 / total,
+                    mResidencyMs[RefreshResidencyTracker.RATE_120] * 100 / total));
+            view.setVisibility(View.VISIBLE);
+        }
+
+        private void toggleExpanded(String packageName) {
+            if (!mExpanded.remove(packageName)) {
+                mExpanded.add(packageName);
+            }
+            rebuildRows();
+            notifyDataSetChanged();
+        }
+
+        private void rebuildRows() {
+            mRows.clear();
+            mRowForEntry = new int[mEntries.size()];
+            for (int i = 0; i < mEntries.size(); i++) {
+                final ApplicationsState.AppEntry entry = mEntries.get(i);
+                mRowForEntry[i] = mRows.size();
+                mRows.add(new Row(entry, i, null));
+                if (entry != null && mExpanded.contains(entry.info.packageName)) {
+                    for (ComponentName activity : getActivities(entry.info.packageName)) {
+                        mRows.add(new Row(entry, i, activity));
+                    }
+                }
+            }
+        }
+
+        private List<ComponentName> getActivities(String packageName) {
+            List<ComponentName> activities = mActivities.get(packageName);
+            if (activities != null) {
+                return activities;
+            }
+
+            activities = new ArrayList<>();
+            try {
+                PackageInfo info = getActivity().getPackageManager().getPackageInfo(
+                        packageName, PackageManager.GET_ACTIVITIES);
+                if (info.activities != null) {
+                    for (ActivityInfo activity : info.activities) {
+                        activities.add(new ComponentName(packageName, activity.name));
+                    }
+                }
+            } catch (PackageManager.NameNotFoundException e) {
+                // Uninstalled in the meantime, nothing to expand
+            }
+            mActivities.put(packageName, activities);
+            return activities;
         }
 
         private void setEntries(List<ApplicationsState.AppEntry> entries,
                 List<String> sections, List<Integer> positions) {
             mEntries = entries;
+            mActivities.clear();
+            rebuildRows();
             mSections = sections.toArray(new String[sections.size()]);
             mPositions = new int[positions.size()];
             for (int i = 0; i < positions.size(); i++) {
@@ -330,8 +525,17 @@ public class RefreshSettingsFragment extends PreferenceFragment
 
         @Override
         public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
-            final ApplicationsState.AppEntry entry = (ApplicationsState.AppEntry) parent.getTag();
-            
+            final Row row = (Row) parent.getTag();
+
+            if (row.activity != null) {
+                if (mRefreshUtils.getStateForActivity(row.activity) != position) {
+                    mRefreshUtils.writeActivity(row.activity, position);
+                    notifyDataSetChanged();
+                }
+                return;
+            }
+
+            final ApplicationsState.AppEntry entry = row.entry;
             int currentState = mRefreshUtils.getStateForPackage(entry.info.packageName);
             if (currentState != position) {
                 mRefreshUtils.writePackage(entry.info.packageName, position);
@@ -349,7 +553,7 @@ public class RefreshSettingsFragment extends PreferenceFragment
                 return -1;
             }
 
-            return mPositions[section];
+            return mRowForEntry[mPositions[section]];
         }
 
         @Override
@@ -358,7 +562,7 @@ public class RefreshSettingsFragment extends PreferenceFragment
                 return -1;
             }
 
-            final int index = Arrays.binarySearch(mPositions, position);
+            final int index = Arrays.binarySearch(mPositions, mRows.get(position).entryIndex);
 
             /*
              * Consider this example: section positions are 0, 3, 5; the supplied
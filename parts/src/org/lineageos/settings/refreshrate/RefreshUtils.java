@@ -16,23 +16,22 @@
 
 package org.lineageos.settings.refreshrate;
 
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.os.UserHandle;
 import android.view.Display;
 
-import android.provider.Settings;
-import androidx.preference.PreferenceManager;
+import org.lineageos.settings.appprofile.AppProfile;
+import org.lineageos.settings.appprofile.AppProfileStore;
+import org.lineageos.settings.refreshrate.RefreshRuleStore.Mode;
 
-public final class RefreshUtils {
+import java.io.PrintWriter;
 
-    private static final String REFRESH_CONTROL = "refresh_control";
+public final class RefreshUtils {
 
     private static float defaultMaxRate;
     private static float defaultMinRate;
-    private static final String KEY_PEAK_REFRESH_RATE = "peak_refresh_rate";
-    private static final String KEY_MIN_REFRESH_RATE = "min_refresh_rate";
     private Context mContext;
     protected static boolean isAppInList = false;
 
@@ -44,13 +43,14 @@ public final class RefreshUtils {
     private static final float REFRESH_STATE_STANDARD = 60f;
     private static final float REFRESH_STATE_EXTREME = 120f;
 
-    private static final String REFRESH_STANDARD = "refresh.standard=";
-    private static final String REFRESH_EXTREME = "refresh.extreme=";
-
-    private SharedPreferences mSharedPrefs;
+    private final RefreshRuleStore mRules;
+    private final AppProfileStore mProfiles;
+    private final RefreshPolicyApplier mApplier;
 
     protected RefreshUtils(Context context) {
-        mSharedPrefs = PreferenceManager.getDefaultSharedPreferences(context);
+        mRules = RefreshRuleStore.getInstance(context);
+        mProfiles = AppProfileStore.getInstance(context);
+        mApplier = new RefreshPolicyApplier(context, REFRESH_STATE_DEFAULT);
         mContext = context;
     }
 
@@ -59,83 +59,97 @@ public final class RefreshUtils {
                 UserHandle.CURRENT);
     }
 
-    private void writeValue(String profiles) {
-        mSharedPrefs.edit().putString(REFRESH_CONTROL, profiles).apply();
+    protected void startObservingRates() {
+        mApplier.startObserving();
+    }
+
+    protected void stopObservingRates() {
+        mApplier.stopObserving();
     }
 
    protected void getOldRate(){
-        defaultMaxRate = Settings.System.getFloat(mContext.getContentResolver(), KEY_PEAK_REFRESH_RATE, REFRESH_STATE_DEFAULT);
-        defaultMinRate = Settings.System.getFloat(mContext.getContentResolver(), KEY_MIN_REFRESH_RATE, REFRESH_STATE_DEFAULT);
+        defaultMaxRate = mApplier.getPeakRate();
+        defaultMinRate = mApplier.getMinRate();
     }
 
+    protected void dump(PrintWriter pw) {
+        mApplier.dump(pw);
+    }
 
-    private String getValue() {
-        String value = mSharedPrefs.getString(REFRESH_CONTROL, null);
+    protected void writePackage(String packageName, int mode) {
+        mRules.setMode(packageName, Mode.fromState(mode));
+    }
 
-        if (value == null || value.isEmpty()) {
-            value = REFRESH_STANDARD + ":" + REFRESH_EXTREME;
-            writeValue(value);
-        }
-        return value;
+    protected int getStateForPackage(String packageName) {
+        return mRules.getMode(packageName).state;
     }
 
-    protected void writePackage(String packageName, int mode) {
-        String value = getValue();
-        value = value.replace(packageName + ",", "");
-        String[] modes = value.split(":");
-        String finalString;
-
-        switch (mode) {
-            case STATE_STANDARD:
-                modes[0] = modes[0] + packageName + ",";
-                break;
-            case STATE_EXTREME:
-                modes[1] = modes[1] + packageName + ",";
-                break;
-        }
+    protected void writeActivity(ComponentName component, int mode) {
+        mRules.setActivityMode(component, Mode.fromState(mode));
+    }
 
-        finalString = modes[0] + ":" + modes[1];
+    /**
+     * @return the state set on the activity itself, STATE_DEFAULT if it follows
+     *         its package
+     */
+    protected int getStateForActivity(ComponentName component) {
+        return mRules.getActivityMode(component).state;
+    }
 
-        writeValue(finalString);
+    protected void setRefreshRate(ComponentName component) {
+        setRefreshRate(component, 0);
     }
 
-    protected int getStateForPackage(String packageName) {
-        String value = getValue();
-        String[] modes = value.split(":");
-        int state = STATE_DEFAULT;
-        if (modes[0].contains(packageName + ",")) {
-            state = STATE_STANDARD;
-        } else if (modes[1].contains(packageName + ",")) {
-            state = STATE_EXTREME;
+    /**
+     * @return whether the user opted the app out of dropping the rate while
+     *         the screen is not touched
+     */
+    protected boolean isIdleExempt(ComponentName component) {
+        return mRules.isIdleExempt(component.getPackageName());
+    }
+
+    protected boolean isIdleDownRampEnabled() {
+        return mRules.isIdleDownRampEnabled();
+    }
+
+    /**
+     * @return the refresh tier of the app profile if it sets one, else the rule
+     */
+    private Mode resolveMode(ComponentName component) {
+        final AppProfile profile = mProfiles.get(component.getPackageName());
+        if (profile != null && profile.refreshMode != null) {
+            return profile.refreshMode;
         }
-        return state;
+        return mRules.resolveMode(component);
     }
 
-    protected void setRefreshRate(String packageName) {
-        String value = getValue();
-        String modes[];
+    /**
+     * @param peakCap upper bound for the peak rate, e.g. during video playback,
+     *        or 0 for none
+     */
+    protected void setRefreshRate(ComponentName component, float peakCap) {
         float maxrate = defaultMaxRate;
         float minrate = defaultMinRate;
         isAppInList = false;
 
-            if (value != null) {
-            modes = value.split(":");
-
-            if (modes[0].contains(packageName + ",")) {
+        switch (resolveMode(component)) {
+            case STANDARD:
                 maxrate = REFRESH_STATE_STANDARD;
-                if ( minrate > maxrate){
-                minrate = maxrate;
-                }
-		isAppInList = true;
-           } else if (modes[1].contains(packageName + ",")) {
+                isAppInList = true;
+                break;
+            case EXTREME:
                 maxrate = REFRESH_STATE_EXTREME;
-                if ( minrate > maxrate){
-                minrate = maxrate;
-                }
-		isAppInList = true;
-           }
-          }
-	Settings.System.putFloat(mContext.getContentResolver(), KEY_MIN_REFRESH_RATE, minrate);
-        Settings.System.putFloat(mContext.getContentResolver(), KEY_PEAK_REFRESH_RATE, maxrate);
+                isAppInList = true;
+                break;
+        }
+        if (peakCap > 0 && maxrate > peakCap) {
+            maxrate = peakCap;
+            // The settings no longer hold the defaults, don't read them back as such
+            isAppInList = true;
+        }
+        if (isAppInList && minrate > maxrate) {
+            minrate = maxrate;
+        }
+        mApplier.apply(minrate, maxrate);
     }
 }
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.settings.refreshrate;
+
+import android.hardware.input.InputManagerGlobal;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Display;
+import android.view.InputEvent;
+import android.view.InputEventReceiver;
+import android.view.InputMonitor;
+import android.view.MotionEvent;
+
+import java.io.PrintWriter;
+
+/**
+ * Reports when the user stopped touching the screen for a while.
+ *
+ * Listens to touches through an input monitor. Idle is entered only once no
+ * finger has been down for the whole timeout, and left on the very next
+ * touch-down, so the rate drops slowly but comes back instantly. Only DOWN and
+ * UP events do any work, MOVE events are just acknowledged.
+ */
+final class TouchIdleController {
+    private static final String TAG = "TouchIdleController";
+    private static final boolean DEBUG = false;
+
+    interface Listener {
+        /**
+         * Called on the controller thread when the idle state changes.
+         */
+        void onTouchIdleChanged(boolean idle);
+    }
+
+    private final long mTimeoutMs;
+    private final Listener mListener;
+    private final HandlerThread mThread = new HandlerThread(TAG);
+    private final Handler mHandler;
+
+    // Only touched on the controller thread
+    private InputMonitor mInputMonitor;
+    private InputEventReceiver mInputReceiver;
+    private boolean mIdle;
+    private long mTierSince;
+    private long mActiveMs;
+    private long mIdleMs;
+    private long mIdleEntries;
+
+    private final Runnable mIdleRunnable = () -> setIdle(true);
+
+    TouchIdleController(long timeoutMs, Listener listener) {
+        mTimeoutMs = timeoutMs;
+        mListener = listener;
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    /**
+     * Starts watching touches, e.g. when the screen turns on.
+     */
+    void start() {
+        mHandler.post(() -> {
+            if (mInputMonitor != null) {
+                return;
+            }
+            mInputMonitor = InputManagerGlobal.getInstance().monitorGestureInput(
+                    TAG, Display.DEFAULT_DISPLAY);
+            mInputReceiver = new InputEventReceiver(mInputMonitor.getInputChannel(),
+                    mThread.getLooper()) {
+                @Override
+                public void onInputEvent(InputEvent event) {
+                    if (event instanceof MotionEvent) {
+                        onMotionEvent((MotionEvent) event);
+                    }
+                    finishInputEvent(event, false);
+                }
+            };
+            mTierSince = SystemClock.elapsedRealtime();
+            mHandler.postDelayed(mIdleRunnable, mTimeoutMs);
+        });
+    }
+
+    /**
+     * Stops watching touches and reports non-idle, e.g. when the screen turns off.
+     */
+    void stop() {
+        mHandler.post(() -> {
+            if (mInputMonitor == null) {
+                return;
+            }
+            mHandler.removeCallbacks(mIdleRunnable);
+            mInputReceiver.dispose();
+            mInputMonitor.dispose();
+            mInputReceiver = null;
+            mInputMonitor = null;
+            setIdle(false);
+            accountTier();
+        });
+    }
+
+    void quit() {
+        stop();
+        mThread.quitSafely();
+    }
+
+    void dump(PrintWriter pw) {
+        // Unsynchronized snapshot, good enough for dumpsys
+        pw.println("  touch idle: timeout=" + mTimeoutMs + "ms idle=" + mIdle
+                + " entries=" + mIdleEntries);
+        pw.println("  time in tier: active=" + mActiveMs + "ms idle=" + mIdleMs + "ms");
+    }
+
+    private void onMotionEvent(MotionEvent event) {
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                mHandler.removeCallbacks(mIdleRunnable);
+                setIdle(false);
+                break;
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
+                mHandler.postDelayed(mIdleRunnable, mTimeoutMs);
+                break;
+        }
+    }
+
+    private void setIdle(boolean idle) {
+        if (mIdle == idle) {
+            return;
+        }
+        accountTier();
+        mIdle = idle;
+        if (idle) {
+            mIdleEntries++;
+        }
+        if (DEBUG) Log.d(TAG, "Touch idle: " + idle);
+        mListener.onTouchIdleChanged(idle);
+    }
+
+    private void accountTier() {
+        final long now = SystemClock.elapsedRealtime();
+        if (mIdle) {
+            mIdleMs += now - mTierSince;
+        } else {
+            mActiveMs += now - mTierSince;
+        }
+        mTierSince = now;
+    }
+}
@@ -17,18 +17,23 @@
 
 package org.lineageos.settings.touchsampling;
 
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
+import android.content.pm.ActivityInfo;
 import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.graphics.drawable.Drawable;
 import android.os.AsyncTask;
 import android.os.Bundle;
 import android.util.Log;
+import android.view.View;
 
 import androidx.preference.Preference;
 import androidx.preference.PreferenceFragment;
 import androidx.preference.PreferenceScreen;
+import androidx.preference.PreferenceViewHolder;
 import androidx.preference.SwitchPreference;
 
 import org.lineageos.settings.R;
@@ -36,17 +41,25 @@ import org.lineageos.settings.R;
 import java.text.Collator;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 public class TouchSamplingPerAppFragment extends PreferenceFragment {
 
     private static final String TAG = "TouchSamplingPerAppFragment";
+
+    // Room in the preference order for the activities of an expanded app
+    private static final int ORDER_STRIDE = 10000;
     
     private PackageManager mPackageManager;
     private PreferenceScreen mPreferenceScreen;
     private boolean mShowSystemApps = false;
     private LoadAppsTask mLoadAppsTask;
+    private final Set<String> mExpanded = new HashSet<>();
+    private final Map<String, List<SwitchPreference>> mActivityPrefs = new HashMap<>();
 
     @Override
     public void onCreatePreferences(Bundle savedInstanceState, String rootKey) {
@@ -91,6 +104,7 @@ public class TouchSamplingPerAppFragment extends PreferenceFragment {
         @Override
         protected void onPreExecute() {
             mPreferenceScreen.removeAll();
+            mActivityPrefs.clear();
             // Show loading indicator
             Preference loadingPref = new Preference(getActivity());
             loadingPref.setTitle(R.string.loading_apps);
@@ -144,12 +158,10 @@ public class TouchSamplingPerAppFragment extends PreferenceFragment {
             }
 
             Context context = getActivity();
-            for (AppInfo appInfo : appInfoList) {
-                SwitchPreference appPref = new SwitchPreference(context);
-                appPref.setKey(appInfo.packageName);
-                appPref.setTitle(appInfo.name);
-                appPref.setSummary(appInfo.packageName);
-                appPref.setIcon(appInfo.icon);
+            for (int i = 0; i < appInfoList.size(); i++) {
+                AppInfo appInfo = appInfoList.get(i);
+                AppPreference appPref = new AppPreference(context, appInfo);
+                appPref.setOrder(i * ORDER_STRIDE);
                 
                 // Set current state
                 boolean isEnabled = TouchSamplingUtils.isPerAppHtsrEnabled(context, appInfo.packageName);
@@ -160,17 +172,124 @@ public class TouchSamplingPerAppFragment extends PreferenceFragment {
                     boolean enabled = (Boolean) newValue;
                     TouchSamplingUtils.setPerAppHtsrEnabled(context, appInfo.packageName, enabled);
                     Log.d(TAG, "Per-app HTSR for " + appInfo.packageName + ": " + enabled);
-                    
-                    // Start service if any app has per-app HTSR enabled
-                    Set<String> enabledApps = TouchSamplingUtils.getPerAppHtsrEnabledApps(context);
-                    if (!enabledApps.isEmpty()) {
-                        Intent serviceIntent = new Intent(context, TouchSamplingService.class);
-                        context.startService(serviceIntent);
-                    }
+                    setActivitiesEnabled(appInfo.packageName, !enabled);
+                    onRulesChanged(context);
                     return true;
                 });
                 
                 mPreferenceScreen.addPreference(appPref);
+                if (mExpanded.contains(appInfo.packageName)) {
+                    addActivities(appPref);
+                }
+            }
+        }
+    }
+
+    private void toggleExpanded(AppPreference appPref) {
+        final String packageName = appPref.getKey();
+        if (mExpanded.remove(packageName)) {
+            final List<SwitchPreference> prefs = mActivityPrefs.remove(packageName);
+            if (prefs != null) {
+                for (SwitchPreference pref : prefs) {
+                    mPreferenceScreen.removePreference(pref);
+                }
+            }
+        } else {
+            mExpanded.add(packageName);
+            addActivities(appPref);
+        }
+    }
+
+    /**
+     * Lists the activities of an app right below it. An activity rule only
+     * matters while the app itself is off, so the rows are disabled otherwise.
+     */
+    private void addActivities(AppPreference appPref) {
+        final Context context = getActivity();
+        final String packageName = appPref.getKey();
+        final List<SwitchPreference> prefs = new ArrayList<>();
+        int order = appPref.getOrder();
+        for (ComponentName activity : getActivities(packageName)) {
+            if (++order % ORDER_STRIDE == 0) {
+                break;
+            }
+            SwitchPreference activityPref = new SwitchPreference(context);
+            activityPref.setKey(activity.flattenToString());
+            // No icon, so the activity rows read as nested under their app
+            activityPref.setTitle(activity.getShortClassName());
+            activityPref.setOrder(order);
+            activityPref.setChecked(TouchSamplingUtils.isPerAppHtsrEnabled(
+                    context, activity.flattenToString()));
+            activityPref.setEnabled(!appPref.isChecked());
+            activityPref.setOnPreferenceChangeListener((preference, newValue) -> {
+                boolean enabled = (Boolean) newValue;
+                TouchSamplingUtils.setPerAppHtsrEnabled(context, activity, enabled);
+                Log.d(TAG, "Per-app HTSR for " + activity.flattenToShortString() + ": " + enabled);
+                onRulesChanged(context);
+                return true;
+            });
+            mPreferenceScreen.addPreference(activityPref);
+            prefs.add(activityPref);
+        }
+        mActivityPrefs.put(packageName, prefs);
+    }
+
+    private void setActivitiesEnabled(String packageName, boolean enabled) {
+        final List<SwitchPreference> prefs = mActivityPrefs.get(packageName);
+        if (prefs != null) {
+            for (SwitchPreference pref : prefs) {
+                pref.setEnabled(enabled);
+            }
+        }
+    }
+
+    private List<ComponentName> getActivities(String packageName) {
+        List<ComponentName> activities = new ArrayList<>();
+        try {
+            PackageInfo info = mPackageManager.getPackageInfo(
+                    packageName, PackageManager.GET_ACTIVITIES);
+            if (info.activities != null) {
+                for (ActivityInfo activity : info.activities) {
+                    activities.add(new ComponentName(packageName, activity.name));
+                }
+            }
+        } catch (PackageManager.NameNotFoundException e) {
+            // Uninstalled in the meantime, nothing to expand
+        }
+        return activities;
+    }
+
+    private static void onRulesChanged(Context context) {
+        // Start service if any app has per-app HTSR enabled
+        Set<String> enabledApps = TouchSamplingUtils.getPerAppHtsrEnabledApps(context);
+        if (!enabledApps.isEmpty()) {
+            Intent serviceIntent = new Intent(context, TouchSamplingService.class);
+            context.startService(serviceIntent);
+        }
+    }
+
+    /**
+     * An app row whose icon expands or collapses its activities.
+     */
+    private class AppPreference extends SwitchPreference {
+        private final String mLabel;
+
+        AppPreference(Context context, AppInfo appInfo) {
+            super(context);
+            mLabel = appInfo.name;
+            setKey(appInfo.packageName);
+            setTitle(appInfo.name);
+            setSummary(appInfo.packageName);
+            setIcon(appInfo.icon);
+        }
+
+        @Override
+        public void onBindViewHolder(PreferenceViewHolder holder) {
+            super.onBindViewHolder(holder);
+            final View icon = holder.findViewById(android.R.id.icon);
+            if (icon != null) {
+                icon.setContentDescription(getString(R.string.per_app_htsr_show_activities, mLabel));
+                icon.setOnClickListener(v -> toggleExpanded(this));
             }
         }
     }
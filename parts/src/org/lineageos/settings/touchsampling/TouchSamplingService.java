@@ -16,38 +16,48 @@
 
 package org.lineageos.settings.touchsampling;
 
-import android.app.ActivityManager;
 import android.app.Service;
 import android.content.BroadcastReceiver;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.SharedPreferences;
-import android.os.Handler;
 import android.os.IBinder;
-import android.os.Looper;
 import android.util.Log;
 
-import java.util.List;
+import org.lineageos.settings.utils.ForegroundAppTracker;
+import org.lineageos.settings.utils.SysfsWatcher;
+
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 public class TouchSamplingService extends Service {
     private static final String TAG = "TouchSamplingService";
-    private static final int CHECK_INTERVAL = 1000; // Check every 1 second
 
     private BroadcastReceiver mScreenStateReceiver;
-    private Handler mHandler;
-    private Runnable mAppCheckRunnable;
-    private ActivityManager mActivityManager;
-    private String mCurrentApp = "";
+    private ForegroundAppTracker mTracker;
+    private Executor mExecutor;
+    // All state below is only touched on the tracker thread
+    private boolean mMonitoring;
+    private ComponentName mCurrentComponent;
+    private int mCurrentState;
+
+    private final SysfsWatcher.Listener mStateListener = (path, value) -> {
+        Log.d(TAG, "Touch sampling node changed: " + value);
+        mCurrentState = value;
+    };
 
     @Override
     public void onCreate() {
         super.onCreate();
         Log.d(TAG, "TouchSamplingService started");
 
-        mActivityManager = (ActivityManager) getSystemService(Context.ACTIVITY_SERVICE);
-        mHandler = new Handler(Looper.getMainLooper());
+        mTracker = ForegroundAppTracker.getInstance();
+        mExecutor = mTracker.getExecutor();
+        final int state = SysfsWatcher.getInstance().watch(
+                TouchSamplingUtils.HTSR_FILE, mExecutor, mStateListener);
+        mExecutor.execute(() -> mCurrentState = state);
 
         // Register receiver for screen state changes
         mScreenStateReceiver = new BroadcastReceiver() {
@@ -57,11 +67,15 @@ public class TouchSamplingService extends Service {
                 if (Intent.ACTION_USER_PRESENT.equals(action) ||
                     Intent.ACTION_SCREEN_ON.equals(action)) {
                     Log.d(TAG, "Screen state changed, reapplying touch sampling rate");
+                    TouchSamplingUtils.invalidateTouchSamplingState();
                     startAppMonitoring();
                 } else if (Intent.ACTION_SCREEN_OFF.equals(action)) {
                     Log.d(TAG, "Screen off, stopping app monitoring");
                     stopAppMonitoring();
-                    TouchSamplingUtils.writeTouchSamplingState(0);
+                    mExecutor.execute(() -> {
+                        TouchSamplingUtils.writeTouchSamplingState(0);
+                        mCurrentState = 0;
+                    });
                 }
             }
         };
@@ -73,6 +87,7 @@ public class TouchSamplingService extends Service {
         registerReceiver(mScreenStateReceiver, filter);
 
         // Start monitoring
+        mTracker.addConsumer(mForegroundConsumer);
         startAppMonitoring();
     }
 
@@ -90,6 +105,8 @@ public class TouchSamplingService extends Service {
 
         // Stop monitoring
         stopAppMonitoring();
+        mTracker.removeConsumer(mForegroundConsumer);
+        SysfsWatcher.getInstance().unwatch(TouchSamplingUtils.HTSR_FILE, mStateListener);
 
         // Only disable touch sampling if neither global nor per-app HTSR is enabled
         SharedPreferences sharedPref = getSharedPreferences(
@@ -116,69 +133,40 @@ public class TouchSamplingService extends Service {
         return null;
     }
 
+    private final ForegroundAppTracker.Consumer mForegroundConsumer =
+            (component, userId) -> checkCurrentApp(component);
+
     private void startAppMonitoring() {
-        stopAppMonitoring(); // Stop any existing monitoring
-        
-        mAppCheckRunnable = new Runnable() {
-            @Override
-            public void run() {
-                checkCurrentApp();
-                mHandler.postDelayed(this, CHECK_INTERVAL);
-            }
-        };
-        
-        mHandler.post(mAppCheckRunnable);
+        mExecutor.execute(() -> {
+            mMonitoring = true;
+            // Force the current app to be re-applied, the screen off path cleared the node
+            mCurrentComponent = null;
+            checkCurrentApp(mTracker.getCurrentComponent());
+        });
     }
 
     private void stopAppMonitoring() {
-        if (mHandler != null && mAppCheckRunnable != null) {
-            mHandler.removeCallbacks(mAppCheckRunnable);
-        }
+        mExecutor.execute(() -> mMonitoring = false);
     }
 
-    private void checkCurrentApp() {
-        try {
-            List<ActivityManager.RunningTaskInfo> tasks = 
-                    mActivityManager.getRunningTasks(1);
-            
-            if (tasks != null && !tasks.isEmpty()) {
-                String currentApp = tasks.get(0).topActivity.getPackageName();
-                
-                if (!currentApp.equals(mCurrentApp)) {
-                    mCurrentApp = currentApp;
-                    applyTouchSamplingForApp(currentApp);
-                }
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "Error checking current app", e);
+    private void checkCurrentApp(ComponentName component) {
+        if (!mMonitoring || component == null) {
+            return;
+        }
+        if (!component.equals(mCurrentComponent)) {
+            mCurrentComponent = component;
+            applyTouchSamplingForApp(component);
         }
     }
 
-    private void applyTouchSamplingForApp(String packageName) {
-        SharedPreferences sharedPref = getSharedPreferences(
-                TouchSamplingSettingsFragment.SHAREDHTSR, Context.MODE_PRIVATE);
-        
-        boolean globalHtsrEnabled = sharedPref.getBoolean(
-                TouchSamplingSettingsFragment.HTSR_STATE, false);
-        
-        int desiredState = 0;
-        
-        if (globalHtsrEnabled) {
-            // Global HTSR is enabled
-            desiredState = 1;
-        } else {
-            // Check per-app HTSR
-            Set<String> enabledApps = TouchSamplingUtils.getPerAppHtsrEnabledApps(this);
-            if (enabledApps.contains(packageName)) {
-                desiredState = 1;
-            }
-        }
-        
-        int currentState = TouchSamplingUtils.readTouchSamplingState();
-        
-        if (currentState != desiredState) {
-            Log.d(TAG, "Applying touch sampling for " + packageName + ": " + desiredState);
+    private void applyTouchSamplingForApp(ComponentName component) {
+        int desiredState = TouchSamplingUtils.getDesiredState(this, component);
+
+        if (mCurrentState != desiredState) {
+            Log.d(TAG, "Applying touch sampling for " + component.flattenToShortString()
+                    + ": " + desiredState);
             TouchSamplingUtils.writeTouchSamplingState(desiredState);
+            mCurrentState = desiredState;
         }
     }
 }
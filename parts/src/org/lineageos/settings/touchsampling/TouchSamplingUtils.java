@@ -17,19 +17,26 @@
 
 package org.lineageos.settings.touchsampling;
 
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.util.Log;
 
-import org.lineageos.settings.utils.FileUtils;
+import org.lineageos.settings.appprofile.AppProfile;
+import org.lineageos.settings.appprofile.AppProfileStore;
+import org.lineageos.settings.power.PowerProfile;
+import org.lineageos.settings.utils.SysfsNode;
+import org.lineageos.settings.utils.SysfsWriter;
 
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 public final class TouchSamplingUtils {
 
     private static final String TAG = "TouchSamplingUtils";
     public static final String HTSR_FILE = "/sys/devices/virtual/touch/touch_dev/bump_sample_rate";
+    private static final SysfsNode HTSR_NODE = SysfsNode.get(HTSR_FILE);
 
     // Per-app HTSR preferences
     public static final String PER_APP_HTSR_ENABLED_APPS = "per_app_htsr_enabled_apps";
@@ -41,24 +48,46 @@ public final class TouchSamplingUtils {
         writeTouchSamplingState(htsrState ? 1 : 0);
     }
 
-    public static boolean writeTouchSamplingState(int state) {
-        boolean success = FileUtils.writeOneLine(HTSR_FILE, String.valueOf(state));
-        if (!success) {
-            Log.e(TAG, "Failed to write touch sampling state: " + state);
-        }
-        return success;
+    public static CompletableFuture<Boolean> writeTouchSamplingState(int state) {
+        return SysfsWriter.getInstance().write(HTSR_NODE, state).thenApply(success -> {
+            if (!success) {
+                Log.e(TAG, "Failed to write touch sampling state: " + state);
+            }
+            return success;
+        });
+    }
+
+    /**
+     * Drops the cached node state, e.g. after the touch IC was powered down and
+     * may have come back with its defaults.
+     */
+    public static void invalidateTouchSamplingState() {
+        HTSR_NODE.invalidate();
     }
 
     public static int readTouchSamplingState() {
-        String currentState = FileUtils.readOneLine(HTSR_FILE);
-        if (currentState != null) {
-            try {
-                return Integer.parseInt(currentState.trim());
-            } catch (NumberFormatException e) {
-                Log.e(TAG, "Invalid touch sampling state format: " + currentState);
-            }
+        return HTSR_NODE.readInt(0); // Default to disabled
+    }
+
+    /**
+     * Resolves the touch sampling state for the activity in front: its app
+     * profile first, where a PERFORMANCE power profile implies touch boost,
+     * then the global switch, then the per-app rules.
+     */
+    public static int getDesiredState(Context context, ComponentName component) {
+        AppProfile profile = AppProfileStore.getInstance(context).get(component.getPackageName());
+        if (profile != null && profile.touchSampling != null) {
+            return profile.touchSampling ? 1 : 0;
         }
-        return 0; // Default to disabled
+        if (profile != null && profile.powerProfile == PowerProfile.PERFORMANCE) {
+            return 1;
+        }
+        SharedPreferences sharedPref = context.getSharedPreferences(
+                TouchSamplingSettingsFragment.SHAREDHTSR, Context.MODE_PRIVATE);
+        if (sharedPref.getBoolean(TouchSamplingSettingsFragment.HTSR_STATE, false)) {
+            return 1;
+        }
+        return isPerAppHtsrEnabled(context, component) ? 1 : 0;
     }
 
     // Per-app HTSR methods
@@ -69,6 +98,24 @@ public final class TouchSamplingUtils {
         return enabledApps.contains(packageName);
     }
 
+    /**
+     * Checks the rule of the activity itself first, then that of its package.
+     * Activity rules are stored as flattened component names next to packages.
+     */
+    public static boolean isPerAppHtsrEnabled(Context context, ComponentName component) {
+        SharedPreferences sharedPref = context.getSharedPreferences(
+                TouchSamplingSettingsFragment.SHAREDHTSR, Context.MODE_PRIVATE);
+        // Read-only use, no need to copy the set
+        Set<String> enabledApps = sharedPref.getStringSet(PER_APP_HTSR_ENABLED_APPS, null);
+        return enabledApps != null && (enabledApps.contains(component.flattenToString())
+                || enabledApps.contains(component.getPackageName()));
+    }
+
+    public static void setPerAppHtsrEnabled(Context context, ComponentName component,
+            boolean enabled) {
+        setPerAppHtsrEnabled(context, component.flattenToString(), enabled);
+    }
+
     public static void setPerAppHtsrEnabled(Context context, String packageName, boolean enabled) {
         SharedPreferences sharedPref = context.getSharedPreferences(
                 TouchSamplingSettingsFragment.SHAREDHTSR, Context.MODE_PRIVATE);
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.settings.utils;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Process-wide cache of the battery and charging state.
+ *
+ * Registers one ACTION_BATTERY_CHANGED receiver for the whole process and keeps
+ * the latest values in volatile primitives, so reads are free instead of a
+ * sticky broadcast round-trip each. Listeners are only told when charging
+ * starts or stops, not on every level or temperature update.
+ */
+public final class BatteryStateCache {
+    private static final String TAG = "BatteryStateCache";
+    private static final boolean DEBUG = false;
+
+    public interface Listener {
+        /**
+         * Called on the main thread when charging starts or stops.
+         */
+        void onChargingChanged(boolean charging);
+    }
+
+    private static BatteryStateCache sInstance;
+
+    private final List<Listener> mListeners = new CopyOnWriteArrayList<>();
+
+    private volatile boolean mCharging;
+    private volatile int mLevel = -1;
+    private volatile int mPlugged;
+    private long mTransitions;
+
+    private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            update(intent);
+        }
+    };
+
+    private BatteryStateCache(Context context) {
+        // Registering returns the sticky broadcast, which seeds the state
+        final Intent sticky = context.registerReceiver(mReceiver,
+                new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (sticky != null) {
+            update(sticky);
+        } else {
+            Log.w(TAG, "No battery state yet");
+        }
+    }
+
+    public static synchronized BatteryStateCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new BatteryStateCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * @return whether the battery is charging or full on a charger
+     */
+    public boolean isCharging() {
+        return mCharging;
+    }
+
+    /**
+     * @return the battery level in percent, or -1 if unknown
+     */
+    public int getLevel() {
+        return mLevel;
+    }
+
+    /**
+     * @return the BatteryManager.BATTERY_PLUGGED_* type, or 0 on battery
+     */
+    public int getPlugged() {
+        return mPlugged;
+    }
+
+    public void dump(PrintWriter pw) {
+        pw.println("Battery: charging=" + mCharging + " level=" + mLevel
+                + " plugged=" + mPlugged + " transitions=" + mTransitions);
+    }
+
+    private void update(Intent intent) {
+        final int status = intent.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+        final int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        final int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, 100);
+        final boolean charging = status == BatteryManager.BATTERY_STATUS_CHARGING
+                || status == BatteryManager.BATTERY_STATUS_FULL;
+
+        mLevel = level >= 0 && scale > 0 ? level * 100 / scale : -1;
+        mPlugged = intent.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0);
+        if (charging == mCharging) {
+            return;
+        }
+        mCharging = charging;
+        mTransitions++;
+        if (DEBUG) Log.d(TAG, "Charging: " + charging + " level=" + mLevel);
+        for (Listener listener : mListeners) {
+            listener.onChargingChanged(charging);
+        }
+    }
+}
@@ -16,6 +16,7 @@
 
 package org.lineageos.settings.utils;
 
+import android.os.SystemClock;
 import android.util.Log;
 
 import java.io.BufferedReader;
@@ -41,16 +42,28 @@ public final class FileUtils {
      * @return the read line contents, or null on failure
      */
     public static String readOneLine(String fileName) {
+        return readOneLine(fileName, SysfsStats.get(fileName));
+    }
+
+    /**
+     * Reads the first line of the file at the given path, counting the access
+     * in the given stats rather than those of the path.
+     */
+    static String readOneLine(String path, SysfsStats stats) {
         String line = null;
         BufferedReader reader = null;
+        final long start = SystemClock.elapsedRealtimeNanos();
 
         try {
-            reader = new BufferedReader(new FileReader(fileName), 512);
+            reader = new BufferedReader(new FileReader(path), 512);
             line = reader.readLine();
+            stats.recordRead(SystemClock.elapsedRealtimeNanos() - start);
         } catch (FileNotFoundException e) {
-            Log.w(TAG, "No such file " + fileName + " for reading", e);
+            Log.w(TAG, "No such file " + path + " for reading", e);
+            stats.recordError(e);
         } catch (IOException e) {
-            Log.e(TAG, "Could not read from file " + fileName, e);
+            Log.e(TAG, "Could not read from file " + path, e);
+            stats.recordError(e);
         } finally {
             try {
                 if (reader != null) {
@@ -64,30 +77,32 @@ public final class FileUtils {
         return line;
     }
 
+    /**
+     * Reads the given file as an integer, decimal or 0x-prefixed hexadecimal.
+     * Goes through a persistent {@link SysfsNode} handle, so repeated reads
+     * neither reopen the file nor allocate.
+     *
+     * @return the parsed value, or 0 on failure
+     */
     public static int readLineInt(String fileName) {
-        String line = readOneLine(fileName);
-        if (line == null) {
-            Log.e(TAG, "readLineInt: line is null for file " + fileName);
-            return 0; // or any default value that makes sense in your context
-        }
-        try {
-            return Integer.parseInt(line.replace("0x", ""));
-        } catch (NumberFormatException e) {
-            Log.e(TAG, "Could not convert string to int from file " + fileName, e);
-        }
-        return 0;
+        return SysfsNode.get(fileName).readInt(0);
     }
 
     public static boolean writeOneLine(String fileName, String value) {
         BufferedWriter writer = null;
+        final long start = SystemClock.elapsedRealtimeNanos();
         try {
             writer = new BufferedWriter(new FileWriter(fileName));
             writer.write(value);
+            writer.flush();
+            SysfsStats.get(fileName).recordWrite(SystemClock.elapsedRealtimeNanos() - start);
         } catch (FileNotFoundException e) {
             Log.w(TAG, "No such file " + fileName + " for writing", e);
+            SysfsStats.get(fileName).recordError(e);
             return false;
         } catch (IOException e) {
             Log.e(TAG, "Could not write to file " + fileName, e);
+            SysfsStats.get(fileName).recordError(e);
             return false;
         } finally {
             try {
@@ -107,16 +122,29 @@ public final class FileUtils {
      * @return true on success, false on failure
      */
     public static boolean writeLine(String fileName, String value) {
+        return writeLine(fileName, value, SysfsStats.get(fileName));
+    }
+
+    /**
+     * Writes the value into the file at the given path, counting the access in
+     * the given stats rather than those of the path.
+     */
+    static boolean writeLine(String path, String value, SysfsStats stats) {
         BufferedWriter writer = null;
 
+        final long start = SystemClock.elapsedRealtimeNanos();
         try {
-            writer = new BufferedWriter(new FileWriter(fileName));
+            writer = new BufferedWriter(new FileWriter(path));
             writer.write(value);
+            writer.flush();
+            stats.recordWrite(SystemClock.elapsedRealtimeNanos() - start);
         } catch (FileNotFoundException e) {
-            Log.w(TAG, "No such file " + fileName + " for writing", e);
+            Log.w(TAG, "No such file " + path + " for writing", e);
+            stats.recordError(e);
             return false;
         } catch (IOException e) {
-            Log.e(TAG, "Could not write to file " + fileName, e);
+            Log.e(TAG, "Could not write to file " + path, e);
+            stats.recordError(e);
             return false;
         } finally {
             try {
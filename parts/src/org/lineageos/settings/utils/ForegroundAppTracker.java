@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.settings.utils;
+
+import android.app.ActivityTaskManager;
+import android.app.ActivityTaskManager.RootTaskInfo;
+import android.app.IActivityTaskManager;
+import android.app.TaskStackListener;
+import android.content.ComponentName;
+import android.os.RemoteException;
+import android.os.SystemProperties;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide tracker of the focused foreground activity.
+ *
+ * Registers a single TaskStackListener for all per-app features. A single app
+ * launch fires a burst of stack changes (transitions, trampolines, PiP), so the
+ * first event opens a short coalescing window and one focused-task query is
+ * made once it closes. Consumers are only notified when the focused component
+ * or user actually changed, always on the tracker's own background thread, in
+ * registration order.
+ */
+public final class ForegroundAppTracker {
+    private static final String TAG = "ForegroundAppTracker";
+    private static final boolean DEBUG = false;
+
+    private static final String PROP_COALESCE_WINDOW = "persist.sys.parts.fg_coalesce_ms";
+    private static final int DEFAULT_COALESCE_WINDOW_MS = 40;
+
+    public interface Consumer {
+        /**
+         * Called on the tracker thread whenever a different activity gains focus.
+         */
+        void onForegroundAppChanged(ComponentName component, int userId);
+    }
+
+    private static ForegroundAppTracker sInstance;
+
+    private final ScheduledExecutorService mExecutor =
+            Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, TAG));
+    // Scheduled executors park task exceptions in a future nobody reads
+    private final Executor mLoggingExecutor = r -> mExecutor.execute(() -> {
+        try {
+            r.run();
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Task failed", e);
+        }
+    });
+    private final List<Consumer> mConsumers = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean mQueryPending = new AtomicBoolean();
+    private final long mCoalesceWindowMs =
+            SystemProperties.getInt(PROP_COALESCE_WINDOW, DEFAULT_COALESCE_WINDOW_MS);
+
+    private final AtomicLong mEvents = new AtomicLong();
+    private final AtomicLong mCoalescedEvents = new AtomicLong();
+    private final AtomicLong mQueries = new AtomicLong();
+    private final AtomicLong mUnchangedQueries = new AtomicLong();
+
+    private IActivityTaskManager mActivityTaskManager;
+    private boolean mRegistered;
+
+    // Only touched on the tracker thread
+    private ComponentName mCurrentComponent;
+    private int mCurrentUserId;
+
+    private ForegroundAppTracker() {
+    }
+
+    public static synchronized ForegroundAppTracker getInstance() {
+        if (sInstance == null) {
+            sInstance = new ForegroundAppTracker();
+        }
+        return sInstance;
+    }
+
+    /**
+     * @return the thread consumers are called on, for work that must be
+     *         serialized with foreground changes
+     */
+    public Executor getExecutor() {
+        return mLoggingExecutor;
+    }
+
+    /**
+     * Registers a consumer. It is called with the current foreground app right
+     * away, then on every change.
+     */
+    public synchronized void addConsumer(Consumer consumer) {
+        mConsumers.add(consumer);
+        if (!mRegistered) {
+            try {
+                mActivityTaskManager = ActivityTaskManager.getService();
+                mActivityTaskManager.registerTaskStackListener(mTaskListener);
+                mRegistered = true;
+            } catch (RemoteException e) {
+                Log.e(TAG, "Failed to register task stack listener", e);
+            }
+        }
+        mLoggingExecutor.execute(() -> {
+            if (mCurrentComponent == null) {
+                queryForegroundApp();
+            } else {
+                consumer.onForegroundAppChanged(mCurrentComponent, mCurrentUserId);
+            }
+        });
+    }
+
+    public synchronized void removeConsumer(Consumer consumer) {
+        mConsumers.remove(consumer);
+        if (mConsumers.isEmpty() && mRegistered) {
+            try {
+                mActivityTaskManager.unregisterTaskStackListener(mTaskListener);
+            } catch (RemoteException e) {
+                Log.w(TAG, "Failed to unregister task stack listener", e);
+            }
+            mRegistered = false;
+            mExecutor.execute(() -> mCurrentComponent = null);
+        }
+    }
+
+    /**
+     * @return the last known foreground component; only valid on the tracker thread
+     */
+    public ComponentName getCurrentComponent() {
+        return mCurrentComponent;
+    }
+
+    /**
+     * @return the user of the last known foreground component; only valid on the
+     *         tracker thread
+     */
+    public int getCurrentUserId() {
+        return mCurrentUserId;
+    }
+
+    public void dump(PrintWriter pw) {
+        pw.println("Foreground app tracker:");
+        pw.println("  coalesce window: " + mCoalesceWindowMs + "ms");
+        pw.println("  task stack events: " + mEvents.get());
+        pw.println("  coalesced events: " + mCoalescedEvents.get());
+        pw.println("  focus queries: " + mQueries.get());
+        pw.println("  unchanged focus (dropped): " + mUnchangedQueries.get());
+        pw.println("  consumers: " + mConsumers.size());
+    }
+
+    private final TaskStackListener mTaskListener = new TaskStackListener() {
+        @Override
+        public void onTaskStackChanged() {
+            mEvents.incrementAndGet();
+            // Events that arrive while a query is still scheduled are answered by it
+            if (mQueryPending.compareAndSet(false, true)) {
+                mExecutor.schedule(ForegroundAppTracker.this::queryForegroundApp,
+                        mCoalesceWindowMs, TimeUnit.MILLISECONDS);
+            } else {
+                mCoalescedEvents.incrementAndGet();
+            }
+        }
+    };
+
+    private void queryForegroundApp() {
+        mQueryPending.set(false);
+        if (mActivityTaskManager == null) {
+            return;
+        }
+
+        mQueries.incrementAndGet();
+        final RootTaskInfo info;
+        try {
+            info = mActivityTaskManager.getFocusedRootTaskInfo();
+        } catch (RemoteException e) {
+            Log.e(TAG, "Failed to query focused task", e);
+            return;
+        }
+        if (info == null || info.topActivity == null) {
+            return;
+        }
+
+        final ComponentName component = info.topActivity;
+        final int userId = info.userId;
+        if (component.equals(mCurrentComponent) && userId == mCurrentUserId) {
+            mUnchangedQueries.incrementAndGet();
+            return;
+        }
+        if (DEBUG) Log.d(TAG, "Foreground: " + component.flattenToShortString() + " u" + userId);
+
+        mCurrentComponent = component;
+        mCurrentUserId = userId;
+        for (Consumer consumer : mConsumers) {
+            try {
+                consumer.onForegroundAppChanged(component, userId);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Consumer failed for " + component, e);
+            }
+        }
+    }
+}
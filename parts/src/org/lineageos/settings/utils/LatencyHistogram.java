@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.settings.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free latency histogram with fixed power-of-two microsecond buckets.
+ *
+ * Bucket i counts samples in [2^(i-1), 2^i) us, bucket 0 everything below 1us
+ * and the last bucket everything above ~8s. Recording is a couple of atomic
+ * increments and never allocates; percentiles are reported as the upper bound
+ * of the bucket they fall into.
+ */
+public final class LatencyHistogram {
+    private static final int BUCKETS = 24;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mMaxNs = new AtomicLong();
+
+    public void record(long latencyNs) {
+        final long us = latencyNs / 1000;
+        final int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(us));
+        mBuckets.incrementAndGet(bucket);
+        mCount.incrementAndGet();
+
+        long max = mMaxNs.get();
+        while (latencyNs > max && !mMaxNs.compareAndSet(max, latencyNs)) {
+            max = mMaxNs.get();
+        }
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+
+    public long getMaxUs() {
+        return mMaxNs.get() / 1000;
+    }
+
+    /**
+     * @param percentile in the range (0, 100]
+     * @return the upper bound of the bucket holding the given percentile, in microseconds
+     */
+    public long getPercentileUs(double percentile) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += mBuckets.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        final long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += mBuckets.get(i);
+            if (seen >= rank) {
+                return Math.min(1L << i, getMaxUs());
+            }
+        }
+        return getMaxUs();
+    }
+
+    @Override
+    public String toString() {
+        return "n=" + getCount()
+                + " p50=" + getPercentileUs(50) + "us"
+                + " p99=" + getPercentileUs(99) + "us"
+                + " max=" + getMaxUs() + "us";
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.settings.utils;
+
+import android.os.SystemClock;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Times the sysfs read and write paths against fake attributes, so regressions
+ * show up as numbers before they reach devices.
+ *
+ * Every op gets its own detached {@link SysfsNode} rooted at a scratch
+ * directory and its own unregistered {@link SysfsStats}, so a run neither
+ * redirects the nodes the services use nor shows up in their counters. Calls
+ * are paced at the rate the services poll at rather than in a tight loop,
+ * where caches stay hot and the numbers flatter the real cost.
+ */
+final class SysfsBenchmark {
+    private static final String INT_NODE = "/sys/parts_bench/int_node";
+    private static final String LINE_NODE = "/sys/parts_bench/line_node";
+
+    private interface Op {
+        void run(int i);
+    }
+
+    private static final class Timed {
+        final String name;
+        final Op op;
+        final SysfsStats stats;
+
+        Timed(String name, SysfsStats stats, Op op) {
+            this.name = name;
+            this.op = op;
+            this.stats = stats;
+        }
+    }
+
+    private SysfsBenchmark() {
+        // This class is not supposed to be instantiated
+    }
+
+    /**
+     * Runs every path once per tick for the given number of ticks, sleeping
+     * the given interval between ticks, and prints the latency each path saw.
+     *
+     * @param dir scratch directory for the fake tree, emptied afterwards
+     */
+    static void run(File dir, int iterations, long intervalMs, PrintWriter pw) {
+        try {
+            populate(dir, INT_NODE, "1\n");
+            populate(dir, LINE_NODE, "performance\n");
+        } catch (IOException e) {
+            pw.println("Could not create the fake tree in " + dir + ": " + e);
+            deleteRecursively(dir);
+            return;
+        }
+
+        final String root = dir.getPath();
+        final String intPath = root + INT_NODE;
+        final SysfsStats readIntStats = SysfsStats.createUnregistered();
+        final SysfsStats readLineStats = SysfsStats.createUnregistered();
+        final SysfsStats writeStats = SysfsStats.createUnregistered();
+        final SysfsStats shadowedStats = SysfsStats.createUnregistered();
+        final SysfsNode intNode = SysfsNode.createDetached(root, INT_NODE, readIntStats);
+        final SysfsNode lineNode = SysfsNode.createDetached(root, LINE_NODE, readLineStats);
+        final SysfsNode writeNode = SysfsNode.createDetached(root, INT_NODE, writeStats);
+        final SysfsNode shadowedNode = SysfsNode.createDetached(root, INT_NODE, shadowedStats);
+        writeNode.setShadowTtl(0);
+
+        final SysfsStats oneLineStats = SysfsStats.createUnregistered();
+        final SysfsStats writeLineStats = SysfsStats.createUnregistered();
+        final Timed[] ops = {
+            new Timed("FileUtils.readOneLine", oneLineStats,
+                    i -> FileUtils.readOneLine(intPath, oneLineStats)),
+            new Timed("FileUtils.writeLine", writeLineStats,
+                    i -> FileUtils.writeLine(intPath, (i & 1) == 0 ? "0" : "1", writeLineStats)),
+            new Timed("SysfsNode.readInt", readIntStats, i -> intNode.readInt(0)),
+            new Timed("SysfsNode.readLine", readLineStats, i -> lineNode.readLine()),
+            new Timed("SysfsNode.write", writeStats, i -> writeNode.write(i & 1)),
+            new Timed("SysfsNode.write (shadowed)", shadowedStats, i -> shadowedNode.write(1)),
+        };
+
+        pw.println("Sysfs benchmark, " + iterations + " ticks every " + intervalMs + " ms:");
+        pw.flush();
+        try {
+            for (int i = 0; i < iterations; i++) {
+                if (i > 0) {
+                    SystemClock.sleep(intervalMs);
+                }
+                for (Timed timed : ops) {
+                    timed.op.run(i);
+                }
+            }
+            for (Timed timed : ops) {
+                pw.println("  " + timed.name + ":");
+                timed.stats.dump(pw, "    ");
+            }
+            pw.println("  shadowed writes skipped: " + shadowedNode.getShadowHits()
+                    + " of " + iterations);
+        } finally {
+            intNode.close();
+            lineNode.close();
+            writeNode.close();
+            shadowedNode.close();
+            deleteRecursively(dir);
+        }
+    }
+
+    private static void populate(File dir, String path, String value) throws IOException {
+        final File file = new File(dir, path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void deleteRecursively(File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
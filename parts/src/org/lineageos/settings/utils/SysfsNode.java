@@ -0,0 +1,542 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.settings.utils;
+
+import android.os.SystemClock;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.util.Log;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A persistent handle to a single sysfs node.
+ *
+ * The node is opened once and kept open; every access is a positional read or
+ * write at offset 0 through reused buffers, so steady-state access costs one
+ * syscall and no allocations. I/O goes straight through Os so failures carry
+ * their errno. If the kernel tears the attribute down underneath us
+ * (ENODEV/EBADF), the handle is reopened and the access retried once.
+ *
+ * Every handle also keeps a shadow copy of the last value it wrote or read back.
+ * A write of the same value while the shadow is fresh is suppressed, since the
+ * drivers behind these nodes (touch IC, panel) tend to wake up on every store
+ * regardless of whether anything changed. The shadow expires after a TTL and is
+ * dropped explicitly through {@link #invalidate()} when the kernel reports a change.
+ */
+public final class SysfsNode {
+    private static final String TAG = "SysfsNode";
+    private static final boolean DEBUG = false;
+
+    private static final int BUFFER_SIZE = 512;
+    static final long DEFAULT_SHADOW_TTL_MS = 30 * 1000;
+
+    private static final Map<String, SysfsNode> sNodes = new HashMap<>();
+
+    private final String mPath;
+    // Directory standing in for / of a detached handle, or null
+    private final String mRoot;
+    private final SysfsStats mStats;
+    private final ByteBuffer mReadBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final ByteBuffer mWriteBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    private final byte[] mShadow = new byte[BUFFER_SIZE];
+    private int mShadowLength = -1;
+    private long mShadowTime;
+    private long mShadowTtl = DEFAULT_SHADOW_TTL_MS;
+    private long mShadowHits;
+    private long mShadowMisses;
+
+    private FileDescriptor mFd;
+    private boolean mReadable;
+    private boolean mWritable;
+
+    private SysfsNode(String path, String root, SysfsStats stats) {
+        mPath = path;
+        mRoot = root;
+        mStats = stats;
+    }
+
+    /**
+     * Returns the shared handle for the given path, creating it on first use.
+     */
+    public static SysfsNode get(String path) {
+        synchronized (sNodes) {
+            SysfsNode node = sNodes.get(path);
+            if (node == null) {
+                node = new SysfsNode(path, null, SysfsStats.get(path));
+                sNodes.put(path, node);
+            }
+            return node;
+        }
+    }
+
+    /**
+     * Creates a handle outside the registry, below a root of its own and
+     * counting into the given stats, so it can be exercised next to the live
+     * handles without disturbing them.
+     */
+    static SysfsNode createDetached(String root, String path, SysfsStats stats) {
+        return new SysfsNode(path, root, stats);
+    }
+
+    /**
+     * Prints the shadow cache counters of every node.
+     */
+    public static void dump(PrintWriter pw) {
+        pw.println("Sysfs shadow cache:");
+        synchronized (sNodes) {
+            for (SysfsNode node : sNodes.values()) {
+                pw.println("  " + node.mPath + ": hits=" + node.getShadowHits()
+                        + " misses=" + node.getShadowMisses());
+            }
+        }
+    }
+
+    public String getPath() {
+        return mPath;
+    }
+
+    /**
+     * Reads the first line of the node.
+     *
+     * @return the line contents without the trailing newline, or null on failure
+     */
+    public synchronized String readLine() {
+        final int length = fill();
+        if (length < 0) {
+            return null;
+        }
+        final int lineLength = lineLength(length);
+        confirm(mReadBuffer.array(), lineLength);
+        return new String(mReadBuffer.array(), 0, lineLength, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Reads the node as a decimal integer, or hexadecimal if prefixed with 0x.
+     *
+     * @return the parsed value, or defaultValue on failure
+     */
+    public synchronized int readInt(int defaultValue) {
+        final long value = readNumber(0, defaultValue);
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            Log.e(TAG, "Value of " + mPath + " does not fit into an int");
+            return defaultValue;
+        }
+        return (int) value;
+    }
+
+    /**
+     * Reads the node as a decimal long, or hexadecimal if prefixed with 0x.
+     *
+     * @return the parsed value, or defaultValue on failure
+     */
+    public synchronized long readLong(long defaultValue) {
+        return readNumber(0, defaultValue);
+    }
+
+    /**
+     * Reads the node as a hexadecimal number, with or without a 0x prefix.
+     *
+     * @return the parsed value, or defaultValue on failure
+     */
+    public synchronized long readHex(long defaultValue) {
+        return readNumber(16, defaultValue);
+    }
+
+    /**
+     * Reads the node as a boolean. Accepts the usual kernel spellings: any
+     * non-zero number, Y/y, and on/off.
+     *
+     * @return the parsed value, or defaultValue on failure
+     */
+    public synchronized boolean readBoolean(boolean defaultValue) {
+        final int length = readTrimmed();
+        if (length < 0) {
+            return defaultValue;
+        }
+        final byte[] data = mReadBuffer.array();
+        final int start = skipWhitespace(data, length);
+        if (start == length) {
+            return defaultValue;
+        }
+        switch (data[start]) {
+            case 'Y': case 'y':
+                return true;
+            case 'N': case 'n':
+                return false;
+            case 'o': case 'O':
+                return start + 1 < length && (data[start + 1] | 0x20) == 'n';
+        }
+        final long value = parseNumber(data, start, length, 0, Long.MIN_VALUE);
+        return value == Long.MIN_VALUE ? defaultValue : value != 0;
+    }
+
+    /**
+     * Reads the whole node, or as much of it as fits, into a caller-owned
+     * buffer. Meant for multi-line nodes such as /proc/stat that the internal
+     * buffer is too small for; the contents are left for the caller to parse
+     * and do not touch the write shadow.
+     *
+     * @return the number of bytes read, or -1 on failure
+     */
+    public synchronized int read(ByteBuffer buffer) {
+        return fill(buffer);
+    }
+
+    /**
+     * Writes the given value into the node
+     *
+     * @return true on success, false on failure
+     */
+    public synchronized boolean write(String value) {
+        mWriteBuffer.clear();
+        final int length = Math.min(value.length(), mWriteBuffer.capacity());
+        for (int i = 0; i < length; i++) {
+            mWriteBuffer.put((byte) value.charAt(i));
+        }
+        mWriteBuffer.flip();
+        return flushIfChanged();
+    }
+
+    /**
+     * Writes the decimal representation of the given value into the node
+     *
+     * @return true on success, false on failure
+     */
+    public synchronized boolean write(int value) {
+        mWriteBuffer.clear();
+        putDecimal(mWriteBuffer, value);
+        mWriteBuffer.flip();
+        return flushIfChanged();
+    }
+
+    /**
+     * Forgets the shadow value, so the next write goes to the node unconditionally.
+     * Call this whenever the node may have changed behind our back.
+     */
+    public synchronized void invalidate() {
+        mShadowLength = -1;
+    }
+
+    /**
+     * Sets how long a written or read value is trusted to still be in the node.
+     * A TTL of 0 disables write suppression for this node.
+     */
+    public synchronized void setShadowTtl(long ttlMs) {
+        mShadowTtl = ttlMs;
+        if (ttlMs <= 0) {
+            mShadowLength = -1;
+        }
+    }
+
+    /**
+     * @return the number of writes suppressed because the node already held the value
+     */
+    public synchronized long getShadowHits() {
+        return mShadowHits;
+    }
+
+    /**
+     * @return the number of writes that had to go to the node
+     */
+    public synchronized long getShadowMisses() {
+        return mShadowMisses;
+    }
+
+    /**
+     * Closes the underlying descriptor. The next access reopens it.
+     */
+    public synchronized void close() {
+        closeFd();
+    }
+
+    private long readNumber(int radix, long defaultValue) {
+        final int length = readTrimmed();
+        if (length < 0) {
+            return defaultValue;
+        }
+        final byte[] data = mReadBuffer.array();
+        return parseNumber(data, skipWhitespace(data, length), length, radix, defaultValue);
+    }
+
+    private int readTrimmed() {
+        final int length = fill();
+        if (length < 0) {
+            return -1;
+        }
+        final int lineLength = lineLength(length);
+        confirm(mReadBuffer.array(), lineLength);
+        return trimmedLength(mReadBuffer.array(), lineLength);
+    }
+
+    /**
+     * Parses a number out of data[start, end) without allocating.
+     *
+     * @param radix 10 or 16, or 0 to pick 16 for 0x-prefixed input and 10 otherwise
+     */
+    private long parseNumber(byte[] data, int start, int end, int radix, long defaultValue) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (data[i] == '-' || data[i] == '+')) {
+            negative = data[i] == '-';
+            i++;
+        }
+        if (i + 1 < end && data[i] == '0' && (data[i + 1] | 0x20) == 'x') {
+            if (radix == 0 || radix == 16) {
+                radix = 16;
+                i += 2;
+            }
+        }
+        if (radix == 0) {
+            radix = 10;
+        }
+
+        final int digitsStart = i;
+        long value = 0;
+        for (; i < end; i++) {
+            final int digit = Character.digit(data[i], radix);
+            if (digit < 0) {
+                break;
+            }
+            value = value * radix + digit;
+        }
+        if (i == digitsStart || i != end) {
+            Log.e(TAG, "Could not parse a number from " + mPath);
+            return defaultValue;
+        }
+        return negative ? -value : value;
+    }
+
+    private int fill() {
+        return fill(mReadBuffer);
+    }
+
+    private int fill(ByteBuffer buffer) {
+        for (int attempt = 0; attempt < 2; attempt++) {
+            try {
+                final long start = SystemClock.elapsedRealtimeNanos();
+                final FileDescriptor fd = fd();
+                if (!mReadable) {
+                    Log.e(TAG, "Node " + mPath + " is not readable");
+                    return -1;
+                }
+                buffer.clear();
+                long position = 0;
+                int read;
+                while (buffer.hasRemaining()
+                        && (read = Os.pread(fd, buffer, position)) > 0) {
+                    position += read;
+                }
+                mStats.recordRead(SystemClock.elapsedRealtimeNanos() - start);
+                return buffer.position();
+            } catch (ErrnoException | IOException e) {
+                if (!handleFailure(e, attempt, "read from")) {
+                    return -1;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private boolean flushIfChanged() {
+        if (shadowMatches()) {
+            mShadowHits++;
+            if (DEBUG) Log.d(TAG, "Suppressed redundant write to " + mPath);
+            return true;
+        }
+        mShadowMisses++;
+        if (!flush()) {
+            mShadowLength = -1;
+            return false;
+        }
+        confirm(mWriteBuffer.array(), mWriteBuffer.limit());
+        return true;
+    }
+
+    private boolean shadowMatches() {
+        if (mShadowLength < 0 || mShadowTtl <= 0
+                || SystemClock.elapsedRealtime() - mShadowTime > mShadowTtl) {
+            return false;
+        }
+        final int length = trimmedLength(mWriteBuffer.array(), mWriteBuffer.limit());
+        if (length != mShadowLength) {
+            return false;
+        }
+        final byte[] data = mWriteBuffer.array();
+        for (int i = 0; i < length; i++) {
+            if (data[i] != mShadow[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void confirm(byte[] data, int length) {
+        if (mShadowTtl <= 0) {
+            return;
+        }
+        mShadowLength = trimmedLength(data, length);
+        System.arraycopy(data, 0, mShadow, 0, mShadowLength);
+        mShadowTime = SystemClock.elapsedRealtime();
+    }
+
+    private boolean flush() {
+        for (int attempt = 0; attempt < 2; attempt++) {
+            try {
+                final long start = SystemClock.elapsedRealtimeNanos();
+                final FileDescriptor fd = fd();
+                if (!mWritable) {
+                    Log.e(TAG, "Node " + mPath + " is not writable");
+                    return false;
+                }
+                mWriteBuffer.rewind();
+                long position = 0;
+                while (mWriteBuffer.hasRemaining()) {
+                    position += Os.pwrite(fd, mWriteBuffer, position);
+                }
+                mStats.recordWrite(SystemClock.elapsedRealtimeNanos() - start);
+                return true;
+            } catch (ErrnoException | IOException e) {
+                if (!handleFailure(e, attempt, "write to")) {
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Drops the descriptor after a failed access.
+     *
+     * @return true if the failure means the handle went stale and the access
+     *         should be retried on a fresh one
+     */
+    private boolean handleFailure(Exception e, int attempt, String what) {
+        closeFd();
+        if (attempt == 0 && isStaleHandle(e)) {
+            if (DEBUG) Log.d(TAG, "Reopening stale handle for " + mPath, e);
+            return true;
+        }
+        mStats.recordError(e);
+        Log.e(TAG, "Could not " + what + " " + mPath, e);
+        return false;
+    }
+
+    private FileDescriptor fd() throws ErrnoException {
+        if (mFd == null) {
+            mFd = open();
+        }
+        return mFd;
+    }
+
+    private FileDescriptor open() throws ErrnoException {
+        final String path = mRoot != null ? mRoot + mPath : mPath;
+        try {
+            final FileDescriptor fd =
+                    Os.open(path, OsConstants.O_RDWR | OsConstants.O_CLOEXEC, 0);
+            mReadable = mWritable = true;
+            return fd;
+        } catch (ErrnoException e) {
+            // Some attributes are only readable or only writable
+        }
+        try {
+            final FileDescriptor fd =
+                    Os.open(path, OsConstants.O_RDONLY | OsConstants.O_CLOEXEC, 0);
+            mReadable = true;
+            mWritable = false;
+            return fd;
+        } catch (ErrnoException e) {
+            // Fall through to write-only
+        }
+        final FileDescriptor fd = Os.open(path, OsConstants.O_WRONLY | OsConstants.O_CLOEXEC, 0);
+        mReadable = false;
+        mWritable = true;
+        return fd;
+    }
+
+    private void closeFd() {
+        if (mFd != null) {
+            try {
+                Os.close(mFd);
+            } catch (ErrnoException e) {
+                // Ignored, not much we can do anyway
+            }
+            mFd = null;
+        }
+    }
+
+    private int lineLength(int length) {
+        final byte[] data = mReadBuffer.array();
+        for (int i = 0; i < length; i++) {
+            if (data[i] == '\n') {
+                return i;
+            }
+        }
+        return length;
+    }
+
+    private static int skipWhitespace(byte[] data, int length) {
+        int i = 0;
+        while (i < length && data[i] <= ' ') {
+            i++;
+        }
+        return i;
+    }
+
+    private static int trimmedLength(byte[] data, int length) {
+        while (length > 0 && data[length - 1] <= ' ') {
+            length--;
+        }
+        return length;
+    }
+
+    private static boolean isStaleHandle(Exception e) {
+        final int errno = SysfsStats.errnoOf(e);
+        return errno == OsConstants.ENODEV || errno == OsConstants.EBADF;
+    }
+
+    private static void putDecimal(ByteBuffer buffer, int value) {
+        if (value == 0) {
+            buffer.put((byte) '0');
+            return;
+        }
+        long v = value;
+        if (v < 0) {
+            buffer.put((byte) '-');
+            v = -v;
+        }
+        final int start = buffer.position();
+        while (v > 0) {
+            buffer.put((byte) ('0' + (v % 10)));
+            v /= 10;
+        }
+        // Digits were emitted least significant first, flip them in place
+        for (int i = start, j = buffer.position() - 1; i < j; i++, j--) {
+            final byte tmp = buffer.get(i);
+            buffer.put(i, buffer.get(j));
+            buffer.put(j, tmp);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.settings.utils;
+
+import android.system.ErrnoException;
+import android.system.OsConstants;
+
+import java.io.PrintWriter;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.NoSuchFileException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Per-node read/write latency and error counters for the sysfs layer.
+ */
+public final class SysfsStats {
+    private static final int ERROR_ENOENT = 0;
+    private static final int ERROR_EACCES = 1;
+    private static final int ERROR_EIO = 2;
+    private static final int ERROR_ENODEV = 3;
+    private static final int ERROR_EINVAL = 4;
+    private static final int ERROR_OTHER = 5;
+    private static final String[] ERROR_NAMES =
+            { "ENOENT", "EACCES", "EIO", "ENODEV", "EINVAL", "other" };
+
+    private static final Map<String, SysfsStats> sStats = new ConcurrentHashMap<>();
+
+    private final LatencyHistogram mReads = new LatencyHistogram();
+    private final LatencyHistogram mWrites = new LatencyHistogram();
+    private final AtomicLongArray mErrors = new AtomicLongArray(ERROR_NAMES.length);
+
+    private SysfsStats() {
+    }
+
+    /**
+     * Creates counters that are not listed in {@link #dump(PrintWriter)}.
+     */
+    static SysfsStats createUnregistered() {
+        return new SysfsStats();
+    }
+
+    /**
+     * Returns the counters of the given path, creating them on first use.
+     */
+    public static SysfsStats get(String path) {
+        SysfsStats stats = sStats.get(path);
+        if (stats == null) {
+            stats = sStats.computeIfAbsent(path, p -> new SysfsStats());
+        }
+        return stats;
+    }
+
+    public void recordRead(long latencyNs) {
+        mReads.record(latencyNs);
+    }
+
+    public void recordWrite(long latencyNs) {
+        mWrites.record(latencyNs);
+    }
+
+    public void recordError(Throwable t) {
+        final int errno = errnoOf(t);
+        if (errno == OsConstants.ENOENT) {
+            mErrors.incrementAndGet(ERROR_ENOENT);
+        } else if (errno == OsConstants.EACCES || errno == OsConstants.EPERM) {
+            mErrors.incrementAndGet(ERROR_EACCES);
+        } else if (errno == OsConstants.EIO) {
+            mErrors.incrementAndGet(ERROR_EIO);
+        } else if (errno == OsConstants.ENODEV) {
+            mErrors.incrementAndGet(ERROR_ENODEV);
+        } else if (errno == OsConstants.EINVAL) {
+            mErrors.incrementAndGet(ERROR_EINVAL);
+        } else {
+            mErrors.incrementAndGet(ERROR_OTHER);
+        }
+    }
+
+    /**
+     * Digs the errno out of an I/O failure.
+     *
+     * @return the errno, or 0 if the failure does not carry one
+     */
+    public static int errnoOf(Throwable t) {
+        for (; t != null; t = t.getCause()) {
+            if (t instanceof ErrnoException) {
+                return ((ErrnoException) t).errno;
+            } else if (t instanceof NoSuchFileException) {
+                return OsConstants.ENOENT;
+            } else if (t instanceof AccessDeniedException) {
+                return OsConstants.EACCES;
+            }
+        }
+        return 0;
+    }
+
+    public static void dump(PrintWriter pw) {
+        pw.println("Sysfs nodes:");
+        for (Map.Entry<String, SysfsStats> entry : new TreeMap<>(sStats).entrySet()) {
+            pw.println("  " + entry.getKey());
+            entry.getValue().dump(pw, "    ");
+        }
+    }
+
+    void dump(PrintWriter pw, String prefix) {
+        pw.println(prefix + "read:  " + mReads);
+        pw.println(prefix + "write: " + mWrites);
+        final StringBuilder errors = new StringBuilder(prefix + "errors:");
+        for (int i = 0; i < ERROR_NAMES.length; i++) {
+            errors.append(' ').append(ERROR_NAMES[i]).append('=').append(mErrors.get(i));
+        }
+        pw.println(errors);
+    }
+}
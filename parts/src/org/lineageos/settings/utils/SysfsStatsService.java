@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.settings.utils;
+
+import android.app.Service;
+import android.content.Intent;
+import android.os.IBinder;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
+/**
+ * Exposes the sysfs layer counters through
+ * {@code dumpsys activity service org.lineageos.settings/.utils.SysfsStatsService}.
+ * Appending {@code bench [iterations] [interval_ms]} times the I/O paths against
+ * a fake tree instead, see {@link SysfsBenchmark}.
+ */
+public class SysfsStatsService extends Service {
+    // One tick a second for a minute matches the thermal and telemetry polls
+    private static final int BENCH_ITERATIONS = 60;
+    private static final long BENCH_INTERVAL_MS = 1000;
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        return START_STICKY;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        if (args != null && args.length > 0 && "bench".equals(args[0])) {
+            int iterations = BENCH_ITERATIONS;
+            long intervalMs = BENCH_INTERVAL_MS;
+            try {
+                if (args.length > 1) {
+                    iterations = Math.max(1, Integer.parseInt(args[1]));
+                }
+                if (args.length > 2) {
+                    intervalMs = Math.max(0, Long.parseLong(args[2]));
+                }
+            } catch (NumberFormatException e) {
+                pw.println("Invalid benchmark arguments: " + e.getMessage());
+                return;
+            }
+            SysfsBenchmark.run(new File(getCacheDir(), "sysfs_bench"),
+                    iterations, intervalMs, pw);
+            return;
+        }
+        SysfsStats.dump(pw);
+        pw.println();
+        SysfsNode.dump(pw);
+        pw.println();
+        SysfsWriter.getInstance().dump(pw);
+    }
+}
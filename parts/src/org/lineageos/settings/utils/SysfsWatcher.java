@@ -0,0 +1,305 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.settings.utils;
+
+import android.os.FileObserver;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.system.StructPollfd;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Publishes value changes of sysfs nodes without polling.
+ *
+ * Changes made by the kernel are picked up by blocking on POLLPRI for attributes
+ * whose driver calls sysfs_notify(). Changes made by other userspace clients
+ * (thermal daemon, other apps, ourselves) are picked up through inotify, which
+ * also serves as the only source for nodes outside of sysfs. Either way the node
+ * is re-read and listeners are only called if its value actually changed.
+ */
+public final class SysfsWatcher {
+    private static final String TAG = "SysfsWatcher";
+    private static final boolean DEBUG = false;
+
+    private static final int UNKNOWN_VALUE = Integer.MIN_VALUE;
+
+    public interface Listener {
+        /**
+         * Called on the listener's executor whenever the node holds a new value.
+         */
+        void onValueChanged(String path, int value);
+    }
+
+    private static SysfsWatcher sInstance;
+
+    // Guarded by this
+    private final Map<String, Watch> mWatches = new HashMap<>();
+    private final List<FileDescriptor> mClosePending = new ArrayList<>();
+    private boolean mPollSetDirty;
+    private Thread mPollThread;
+    private FileDescriptor mWakeRead;
+    private FileDescriptor mWakeWrite;
+
+    private final byte[] mDrainBuffer = new byte[64];
+
+    private SysfsWatcher() {
+    }
+
+    public static synchronized SysfsWatcher getInstance() {
+        if (sInstance == null) {
+            sInstance = new SysfsWatcher();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Starts delivering value changes of the given node to the listener.
+     *
+     * @return the current value of the node, or Integer.MIN_VALUE if unreadable
+     */
+    public synchronized int watch(String path, Executor executor, Listener listener) {
+        Watch watch = mWatches.get(path);
+        if (watch == null) {
+            watch = new Watch(path);
+            mWatches.put(path, watch);
+            watch.start();
+        }
+        watch.addListener(executor, listener);
+        return watch.currentValue();
+    }
+
+    /**
+     * Stops delivering value changes of the given node to the listener.
+     */
+    public synchronized void unwatch(String path, Listener listener) {
+        final Watch watch = mWatches.get(path);
+        if (watch != null && watch.removeListener(listener)) {
+            mWatches.remove(path);
+            watch.stop();
+        }
+    }
+
+    private void addPollFd() {
+        mPollSetDirty = true;
+        if (mPollThread == null) {
+            try {
+                final FileDescriptor[] pipe = Os.pipe2(OsConstants.O_CLOEXEC);
+                mWakeRead = pipe[0];
+                mWakeWrite = pipe[1];
+            } catch (ErrnoException e) {
+                Log.e(TAG, "Could not create wake pipe", e);
+                return;
+            }
+            mPollThread = new Thread(this::pollLoop, TAG);
+            mPollThread.setDaemon(true);
+            mPollThread.start();
+        } else {
+            wakePollThread();
+        }
+    }
+
+    private void removePollFd(FileDescriptor fd) {
+        // The poll thread may still be blocked on it, let it close the fd
+        mClosePending.add(fd);
+        mPollSetDirty = true;
+        wakePollThread();
+    }
+
+    private void wakePollThread() {
+        if (mWakeWrite == null) {
+            return;
+        }
+        try {
+            Os.write(mWakeWrite, new byte[] { 1 }, 0, 1);
+        } catch (ErrnoException | IOException e) {
+            Log.e(TAG, "Could not wake poll thread", e);
+        }
+    }
+
+    private void pollLoop() {
+        StructPollfd[] pollFds = new StructPollfd[0];
+        Watch[] owners = new Watch[0];
+
+        while (true) {
+            synchronized (this) {
+                if (mPollSetDirty) {
+                    for (FileDescriptor fd : mClosePending) {
+                        closeQuietly(fd);
+                    }
+                    mClosePending.clear();
+
+                    final List<Watch> polled = new ArrayList<>();
+                    for (Watch watch : mWatches.values()) {
+                        if (watch.mPollFd != null) {
+                            polled.add(watch);
+                        }
+                    }
+                    pollFds = new StructPollfd[polled.size() + 1];
+                    owners = polled.toArray(new Watch[0]);
+                    pollFds[0] = pollFd(mWakeRead, OsConstants.POLLIN);
+                    for (int i = 0; i < owners.length; i++) {
+                        pollFds[i + 1] = pollFd(owners[i].mPollFd, OsConstants.POLLPRI);
+                    }
+                    mPollSetDirty = false;
+                }
+            }
+
+            try {
+                Os.poll(pollFds, -1);
+            } catch (ErrnoException e) {
+                if (e.errno != OsConstants.EINTR) {
+                    Log.e(TAG, "poll failed", e);
+                    return;
+                }
+                continue;
+            }
+
+            if (pollFds[0].revents != 0) {
+                drain(mWakeRead, false);
+            }
+            for (int i = 1; i < pollFds.length; i++) {
+                if ((pollFds[i].revents & (OsConstants.POLLPRI | OsConstants.POLLERR)) != 0) {
+                    // sysfs only re-arms POLLPRI once the attribute was read again
+                    drain(pollFds[i].fd, true);
+                    owners[i - 1].onNodeChanged();
+                }
+            }
+        }
+    }
+
+    private void drain(FileDescriptor fd, boolean rewind) {
+        try {
+            if (rewind) {
+                Os.lseek(fd, 0, OsConstants.SEEK_SET);
+            }
+            Os.read(fd, mDrainBuffer, 0, mDrainBuffer.length);
+        } catch (ErrnoException | IOException e) {
+            if (DEBUG) Log.d(TAG, "drain failed", e);
+        }
+    }
+
+    private static StructPollfd pollFd(FileDescriptor fd, int events) {
+        final StructPollfd pollFd = new StructPollfd();
+        pollFd.fd = fd;
+        pollFd.events = (short) events;
+        return pollFd;
+    }
+
+    private static void closeQuietly(FileDescriptor fd) {
+        try {
+            Os.close(fd);
+        } catch (ErrnoException e) {
+            // Ignored, not much we can do anyway
+        }
+    }
+
+    private final class Watch {
+        private final String mPath;
+        private final SysfsNode mNode;
+        private final List<Executor> mExecutors = new ArrayList<>();
+        private final List<Listener> mListeners = new ArrayList<>();
+
+        private FileDescriptor mPollFd;
+        private FileObserver mObserver;
+        private int mValue = UNKNOWN_VALUE;
+
+        Watch(String path) {
+            mPath = path;
+            mNode = SysfsNode.get(path);
+        }
+
+        void start() {
+            if (mPath.startsWith("/sys/")) {
+                try {
+                    mPollFd = Os.open(mPath, OsConstants.O_RDONLY | OsConstants.O_CLOEXEC, 0);
+                    // Arm POLLPRI by consuming the current contents once
+                    drain(mPollFd, false);
+                    addPollFd();
+                } catch (ErrnoException e) {
+                    Log.w(TAG, "Could not open " + mPath + " for polling, using inotify only");
+                    mPollFd = null;
+                }
+            }
+            mObserver = new FileObserver(new File(mPath), FileObserver.MODIFY) {
+                @Override
+                public void onEvent(int event, String path) {
+                    onNodeChanged();
+                }
+            };
+            mObserver.startWatching();
+
+            synchronized (this) {
+                mValue = mNode.readInt(UNKNOWN_VALUE);
+            }
+        }
+
+        void stop() {
+            mObserver.stopWatching();
+            if (mPollFd != null) {
+                removePollFd(mPollFd);
+                mPollFd = null;
+            }
+        }
+
+        synchronized void addListener(Executor executor, Listener listener) {
+            mExecutors.add(executor);
+            mListeners.add(listener);
+        }
+
+        /**
+         * @return true if this was the last listener
+         */
+        synchronized boolean removeListener(Listener listener) {
+            final int index = mListeners.indexOf(listener);
+            if (index >= 0) {
+                mExecutors.remove(index);
+                mListeners.remove(index);
+            }
+            return mListeners.isEmpty();
+        }
+
+        synchronized int currentValue() {
+            return mValue;
+        }
+
+        void onNodeChanged() {
+            mNode.invalidate();
+            final int value = mNode.readInt(UNKNOWN_VALUE);
+            synchronized (this) {
+                if (value == mValue) {
+                    return;
+                }
+                if (DEBUG) Log.d(TAG, mPath + ": " + mValue + " -> " + value);
+                mValue = value;
+                for (int i = 0; i < mListeners.size(); i++) {
+                    final Listener listener = mListeners.get(i);
+                    mExecutors.get(i).execute(() -> listener.onValueChanged(mPath, value));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.settings.utils;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Performs sysfs writes on a dedicated background thread.
+ *
+ * Writes are queued per node with last-writer-wins semantics: if a node already
+ * has a write pending, a new value simply replaces it and both callers share the
+ * same completion future. Rapid toggles therefore collapse into a single store,
+ * and slow drivers never stall the calling (usually main) thread.
+ */
+public final class SysfsWriter {
+    private static final String TAG = "SysfsWriter";
+    private static final boolean DEBUG = false;
+
+    private static SysfsWriter sInstance;
+
+    private final ExecutorService mExecutor =
+            Executors.newSingleThreadExecutor(r -> new Thread(r, TAG));
+
+    // Guarded by itself
+    private final Map<SysfsNode, PendingWrite> mPending = new HashMap<>();
+
+    // Guarded by mPending
+    private long mWrites;
+    private long mCoalesced;
+    private long mTotalLatencyNs;
+    private long mLastLatencyNs;
+    private long mMaxLatencyNs;
+
+    private SysfsWriter() {
+    }
+
+    public static synchronized SysfsWriter getInstance() {
+        if (sInstance == null) {
+            sInstance = new SysfsWriter();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Queues a write of the given value into the node.
+     *
+     * @return a future completing with true on success, false on failure
+     */
+    public CompletableFuture<Boolean> write(SysfsNode node, String value) {
+        synchronized (mPending) {
+            PendingWrite pending = mPending.get(node);
+            if (pending != null) {
+                if (DEBUG) Log.d(TAG, "Coalescing " + pending.value + " -> " + value
+                        + " for " + node.getPath());
+                pending.value = value;
+                mCoalesced++;
+                return pending.future;
+            }
+            pending = new PendingWrite(value);
+            mPending.put(node, pending);
+            mExecutor.execute(() -> drain(node));
+            return pending.future;
+        }
+    }
+
+    public CompletableFuture<Boolean> write(SysfsNode node, int value) {
+        return write(node, Integer.toString(value));
+    }
+
+    /**
+     * Returns a future that completes once every write queued before this call
+     * has reached its node.
+     */
+    public CompletableFuture<Void> flush() {
+        return CompletableFuture.runAsync(() -> { }, mExecutor);
+    }
+
+    /**
+     * @return the number of nodes with a write still pending
+     */
+    public int getQueueDepth() {
+        synchronized (mPending) {
+            return mPending.size();
+        }
+    }
+
+    /**
+     * @return the number of writes that were folded into an already pending one
+     */
+    public long getCoalescedCount() {
+        synchronized (mPending) {
+            return mCoalesced;
+        }
+    }
+
+    /**
+     * @return enqueue-to-completion latency of the last write, in microseconds
+     */
+    public long getLastLatencyUs() {
+        synchronized (mPending) {
+            return mLastLatencyNs / 1000;
+        }
+    }
+
+    /**
+     * @return the worst enqueue-to-completion latency seen so far, in microseconds
+     */
+    public long getMaxLatencyUs() {
+        synchronized (mPending) {
+            return mMaxLatencyNs / 1000;
+        }
+    }
+
+    /**
+     * @return the mean enqueue-to-completion latency, in microseconds
+     */
+    public long getAverageLatencyUs() {
+        synchronized (mPending) {
+            return mWrites == 0 ? 0 : mTotalLatencyNs / mWrites / 1000;
+        }
+    }
+
+    public void dump(PrintWriter pw) {
+        pw.println("Sysfs writer:");
+        pw.println("  queue depth: " + getQueueDepth());
+        pw.println("  coalesced: " + getCoalescedCount());
+        pw.println("  latency: last=" + getLastLatencyUs() + "us avg=" + getAverageLatencyUs()
+                + "us max=" + getMaxLatencyUs() + "us");
+    }
+
+    private void drain(SysfsNode node) {
+        final PendingWrite pending;
+        synchronized (mPending) {
+            pending = mPending.remove(node);
+        }
+        if (pending == null) {
+            return;
+        }
+
+        final boolean success = node.write(pending.value);
+        final long latency = SystemClock.elapsedRealtimeNanos() - pending.enqueueTime;
+        synchronized (mPending) {
+            mWrites++;
+            mTotalLatencyNs += latency;
+            mLastLatencyNs = latency;
+            mMaxLatencyNs = Math.max(mMaxLatencyNs, latency);
+        }
+        if (DEBUG) Log.d(TAG, "Wrote " + pending.value + " to " + node.getPath()
+                + " in " + (latency / 1000) + "us");
+        pending.future.complete(success);
+    }
+
+    private static final class PendingWrite {
+        final CompletableFuture<Boolean> future = new CompletableFuture<>();
+        final long enqueueTime = SystemClock.elapsedRealtimeNanos();
+        String value;
+
+        PendingWrite(String value) {
+            this.value = value;
+        }
+    }
+}